@@ -34,4 +34,10 @@
 
 # KSP Generated code
 -keep class **.*_Impl { *; }
--keep class **.*_Factory { *; } 
\ No newline at end of file
+-keep class **.*_Factory { *; } 
+# Interpreter tuning results are stored as JSON with Gson
+-keep class com.ovehbe.junkboy.classifier.InterpreterConfig { *; }
+-keep class com.ovehbe.junkboy.classifier.InterpreterBenchmark { *; }
+-keep class com.ovehbe.junkboy.classifier.InterpreterTuning { *; }
+# Tokenizer specs are read from model metadata JSON with Gson
+-keep class com.ovehbe.junkboy.classifier.TokenizerSpec { *; }
@@ -0,0 +1,221 @@
+package com.ovehbe.junkboy.classifier
+
+import android.util.Log
+import android.util.SparseArray
+import org.tensorflow.lite.Interpreter
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * One interpreter together with its own tokenizer state and tensor buffers.
+ * Not thread-safe: [InterpreterPool] hands each session to one caller at a
+ * time, so inference never has to lock.
+ *
+ * The input is resized to the smallest of [SEQUENCE_BUCKETS] that holds the
+ * message, so a short OTP is not padded to [maxSequenceLength] tokens. Sizing
+ * is sticky: the input grows at once for a longer message but only shrinks
+ * after [SHRINK_AFTER] runs in a row fit a shorter bucket, since resizing
+ * re-allocates the tensors and costs more than padding a few short messages.
+ * Models with a fixed sequence length fall back to always using the full
+ * length.
+ */
+class InferenceSession(
+    private val interpreter: Interpreter,
+    private val encoder: SequenceEncoder,
+    private val maxSequenceLength: Int,
+    private val labelCount: Int
+) : AutoCloseable {
+
+    // Float, int32 or quantized tensors, as declared by the model
+    val inputFormat = TensorFormat.of(interpreter.getInputTensor(0))
+    val outputFormat = TensorFormat.of(interpreter.getOutputTensor(0))
+
+    // The interpreter requires buffers whose capacity matches the tensor exactly,
+    // so inputBuffer/outputBuffer are views over storage sized for the largest batch so far
+    private var inputStorage = allocate(maxSequenceLength * inputFormat.bytesPerElement)
+    private var outputStorage = allocate(labelCount * outputFormat.bytesPerElement)
+    private var inputBuffer = inputStorage
+    private var outputBuffer = outputStorage
+    // Views by size in bytes, so going back to a shape seen before allocates nothing
+    private val inputViews = SparseArray<ByteBuffer>()
+    private val outputViews = SparseArray<ByteBuffer>()
+    private var batchRows = 1
+    private var supportsBatching = true
+
+    // Sequence lengths the input can be resized to, smallest first
+    private val buckets = (SEQUENCE_BUCKETS.filter { it < maxSequenceLength } + maxSequenceLength).toIntArray()
+    private var sequenceLength = maxSequenceLength
+    private var supportsBucketing = true
+    // Runs in a row that fit a shorter bucket than the current length, and the longest of them
+    private var shorterRuns = 0
+    private var shorterLength = 0
+
+    init {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Input tensor: $inputFormat, output tensor: $outputFormat")
+        }
+    }
+
+    // Element index of the row being encoded
+    private var inputOffset = 0
+    private val inputSink = TokenSink { position, tokenId ->
+        inputFormat.put(inputBuffer, inputOffset + position, tokenId)
+    }
+
+    /** Runs the model on a single message; read the result with [score] row 0. */
+    fun run(message: MessageContext) {
+        resize(1, stickyLength(bucketFor(message)))
+        inputOffset = 0
+        encoder.encode(message, inputSink, sequenceLength)
+        invoke()
+    }
+
+    /**
+     * Runs the model on as many of `messages[start until end]` as fit in one
+     * invocation and returns how many rows were run. A run covers the
+     * consecutive messages that fit the current sequence length, or the first
+     * message's bucket if that is longer, so callers should order messages by
+     * length. Runs are single rows if the model has a fixed batch dimension.
+     */
+    fun run(messages: List<MessageContext>, start: Int, end: Int): Int {
+        val first = bucketFor(messages[start])
+        val limit = maxOf(first, sequenceLength)
+        var needed = first
+        var count = 1
+        if (supportsBatching) {
+            while (start + count < end) {
+                val bucket = bucketFor(messages[start + count])
+                if (bucket > limit) break
+                needed = maxOf(needed, bucket)
+                count++
+            }
+        }
+        val length = stickyLength(needed)
+        val rows = if (resize(count, length)) count else 1
+        if (rows == 1) {
+            resize(1, length)
+        }
+
+        for (row in 0 until rows) {
+            inputOffset = row * sequenceLength
+            encoder.encode(messages[start + row], inputSink, sequenceLength)
+        }
+        inputOffset = 0
+
+        invoke()
+        return rows
+    }
+
+    /** Model output for [label] in [row] of the last run, dequantized if needed. */
+    fun score(row: Int, label: Int): Float {
+        return outputFormat.get(outputBuffer, row * labelCount + label)
+    }
+
+    override fun close() {
+        interpreter.close()
+    }
+
+    private fun invoke() {
+        inputBuffer.rewind()
+        outputBuffer.rewind()
+        interpreter.run(inputBuffer, outputBuffer)
+    }
+
+    /** The smallest bucket that holds all of [message]'s input ids. */
+    private fun bucketFor(message: MessageContext): Int {
+        if (!supportsBucketing) return maxSequenceLength
+        val tokens = encoder.count(message, maxSequenceLength)
+        for (bucket in buckets) {
+            if (tokens <= bucket) return bucket
+        }
+        return maxSequenceLength
+    }
+
+    /**
+     * The sequence length to run messages needing [needed] tokens at: at once
+     * if that is longer than the current one, but a shorter one only after
+     * [SHRINK_AFTER] runs in a row, the longest of them deciding.
+     */
+    private fun stickyLength(needed: Int): Int {
+        if (needed >= sequenceLength) {
+            shorterRuns = 0
+            return needed
+        }
+        shorterLength = if (shorterRuns == 0) needed else maxOf(shorterLength, needed)
+        if (++shorterRuns < SHRINK_AFTER) return sequenceLength
+        shorterRuns = 0
+        return shorterLength
+    }
+
+    /**
+     * Resizes the input tensor to `[rows, length]`. Only does work when the
+     * shape changes. Returns false if the model cannot take more than one
+     * row; a model that rejects shorter sequences is switched to
+     * [maxSequenceLength] for good.
+     */
+    private fun resize(rows: Int, length: Int): Boolean {
+        val targetLength = if (supportsBucketing) length else maxSequenceLength
+        if (rows == batchRows && targetLength == sequenceLength) return true
+        if (rows > 1 && !supportsBatching) return false
+        try {
+            interpreter.resizeInput(0, intArrayOf(rows, targetLength))
+            interpreter.allocateTensors()
+        } catch (e: IllegalArgumentException) {
+            // Force the next call to restore a valid input shape
+            batchRows = 0
+            if (rows == 1) {
+                if (targetLength == maxSequenceLength) throw e
+                Log.w(TAG, "Model does not support shorter sequences, always using $maxSequenceLength tokens", e)
+                supportsBucketing = false
+                return resize(1, maxSequenceLength)
+            }
+            // Try a single row first to tell whether the batch or the length was rejected
+            resize(1, targetLength)
+            if (supportsBucketing || targetLength == maxSequenceLength) {
+                Log.w(TAG, "Model does not support batched input, classifying one message at a time", e)
+                supportsBatching = false
+                return false
+            }
+            return resize(rows, maxSequenceLength)
+        }
+
+        val inputBytes = rows * targetLength * inputFormat.bytesPerElement
+        val outputBytes = rows * labelCount * outputFormat.bytesPerElement
+        if (inputStorage.capacity() < inputBytes) {
+            inputStorage = allocate(inputBytes)
+            inputViews.clear()
+        }
+        if (outputStorage.capacity() < outputBytes) {
+            outputStorage = allocate(outputBytes)
+            outputViews.clear()
+        }
+        inputBuffer = view(inputStorage, inputViews, inputBytes)
+        outputBuffer = view(outputStorage, outputViews, outputBytes)
+        batchRows = rows
+        sequenceLength = targetLength
+        return true
+    }
+
+    private fun view(storage: ByteBuffer, views: SparseArray<ByteBuffer>, bytes: Int): ByteBuffer {
+        if (storage.capacity() == bytes) return storage
+        views.get(bytes)?.let { return it }
+        val duplicate = storage.duplicate()
+        duplicate.clear()
+        duplicate.limit(bytes)
+        return duplicate.slice().order(ByteOrder.nativeOrder()).also { views.put(bytes, it) }
+    }
+
+    private fun allocate(bytes: Int): ByteBuffer {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder())
+    }
+
+    companion object {
+        private const val TAG = "InferenceSession"
+
+        /** Input lengths tried before the model's full length; most SMS fit the first two. */
+        val SEQUENCE_BUCKETS = intArrayOf(16, 32, 64)
+
+        /** Runs in a row that must fit a shorter bucket before the input shrinks to it. */
+        const val SHRINK_AFTER = 8
+    }
+}
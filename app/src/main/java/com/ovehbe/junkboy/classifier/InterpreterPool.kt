@@ -0,0 +1,119 @@
+package com.ovehbe.junkboy.classifier
+
+import kotlinx.coroutines.channels.Channel
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bounded pool of [InferenceSession]s, so messages classified concurrently
+ * each get their own interpreter instead of racing on a shared one.
+ *
+ * Sessions are created on demand up to [capacity]; further callers suspend
+ * in [borrow] until a session is given back. Time spent waiting is recorded
+ * and reported by [stats].
+ */
+class InterpreterPool(
+    val capacity: Int,
+    private val factory: () -> InferenceSession
+) {
+
+    data class Stats(
+        val capacity: Int,
+        val created: Int,
+        val borrows: Long,
+        val waits: Long,
+        val averageWaitMs: Double,
+        val maxWaitMs: Double
+    )
+
+    private val idle = Channel<InferenceSession>(capacity)
+    private val created = AtomicInteger(0)
+    @Volatile
+    private var closed = false
+
+    private val borrows = AtomicLong(0)
+    private val waits = AtomicLong(0)
+    private val totalWaitNanos = AtomicLong(0)
+    private val maxWaitNanos = AtomicLong(0)
+
+    /** Creates the first session up front so a broken model fails at load time. */
+    fun prime() {
+        check(created.incrementAndGet() == 1) { "Pool already in use" }
+        idle.trySend(factory())
+    }
+
+    /** Takes a session for exclusive use; it must be returned with [giveBack]. */
+    suspend fun borrow(): InferenceSession {
+        check(!closed) { "Interpreter pool is closed" }
+        borrows.incrementAndGet()
+
+        idle.tryReceive().getOrNull()?.let { return it }
+
+        // Grow the pool before making anyone wait
+        if (created.incrementAndGet() <= capacity) {
+            try {
+                return factory()
+            } catch (e: Exception) {
+                created.decrementAndGet()
+                throw e
+            }
+        }
+        created.decrementAndGet()
+
+        val startTime = System.nanoTime()
+        val session = idle.receive()
+        val waited = System.nanoTime() - startTime
+        waits.incrementAndGet()
+        totalWaitNanos.addAndGet(waited)
+        maxWaitNanos.accumulateAndGet(waited) { a, b -> maxOf(a, b) }
+        return session
+    }
+
+    fun giveBack(session: InferenceSession) {
+        if (closed || idle.trySend(session).isFailure) {
+            session.close()
+        }
+    }
+
+    suspend inline fun <T> use(block: (InferenceSession) -> T): T {
+        val session = borrow()
+        try {
+            return block(session)
+        } finally {
+            giveBack(session)
+        }
+    }
+
+    /** Closes idle sessions now and borrowed ones when they are given back. */
+    fun close() {
+        closed = true
+        idle.close()
+        while (true) {
+            val session = idle.tryReceive().getOrNull() ?: break
+            session.close()
+        }
+    }
+
+    fun stats(): Stats {
+        val waitCount = waits.get()
+        return Stats(
+            capacity = capacity,
+            created = created.get(),
+            borrows = borrows.get(),
+            waits = waitCount,
+            averageWaitMs = if (waitCount > 0) totalWaitNanos.get() / waitCount / 1_000_000.0 else 0.0,
+            maxWaitMs = maxWaitNanos.get() / 1_000_000.0
+        )
+    }
+
+    companion object {
+        // Each interpreter holds its own tensor arena, so don't go wider than this
+        private const val MAX_CAPACITY = 4
+
+        /** One interpreter per group of [threadsPerInterpreter] cores. */
+        fun defaultCapacity(threadsPerInterpreter: Int = 1): Int {
+            val cores = Runtime.getRuntime().availableProcessors()
+            return (cores / maxOf(threadsPerInterpreter, 1)).coerceIn(1, MAX_CAPACITY)
+        }
+    }
+}
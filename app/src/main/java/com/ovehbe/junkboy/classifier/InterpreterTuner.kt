@@ -0,0 +1,111 @@
+package com.ovehbe.junkboy.classifier
+
+import android.util.Log
+import org.tensorflow.lite.Interpreter
+
+/** CPU settings an [Interpreter] is built with. */
+data class InterpreterConfig(
+    val numThreads: Int,
+    val useXnnpack: Boolean
+) {
+    val label: String
+        get() = "${numThreads} thread${if (numThreads == 1) "" else "s"}, XNNPACK ${if (useXnnpack) "on" else "off"}"
+
+    fun toOptions(): Interpreter.Options {
+        return Interpreter.Options()
+            .setNumThreads(numThreads)
+            .setUseXNNPACK(useXnnpack)
+    }
+
+    companion object {
+        /** Used until the device has been benchmarked, or if benchmarking fails. */
+        val DEFAULT = InterpreterConfig(numThreads = 2, useXnnpack = true)
+    }
+}
+
+/** Measured average latency of one configuration. */
+data class InterpreterBenchmark(
+    val config: InterpreterConfig,
+    val microsPerMessage: Double
+)
+
+/**
+ * Outcome of a tuning run: every configuration that was measured, fastest
+ * first, and the one selected. [modelKey] identifies the model it was
+ * measured with, so a new model is tuned again.
+ */
+data class InterpreterTuning(
+    val modelKey: String,
+    val selected: InterpreterConfig,
+    val results: List<InterpreterBenchmark>
+)
+
+/**
+ * Micro-benchmark that picks the fastest interpreter configuration for this
+ * device. Runs a fixed sample set through each candidate after a warm-up
+ * and measures the average time per message.
+ */
+object InterpreterTuner {
+
+    private const val TAG = "InterpreterTuner"
+    private const val WARMUP_ROUNDS = 3
+    private const val MEASURED_ROUNDS = 10
+
+    // Fixed sample set, mixing short and long Turkish and English messages
+    private val SAMPLE_MESSAGES = listOf(
+        "Hesabınızdan 250,00 TL harcama yapılmıştır. Bilgi için 0850 222 00 00",
+        "Tebrikler! 1000 TL bonus kazandınız, hemen tıklayın: bit.ly/kazan",
+        "Your verification code is 482913. Do not share it with anyone.",
+        "Sepetinizde %50 indirim sizi bekliyor! Kampanya bu gece sona eriyor, kaçırmayın. " +
+            "Üyeliğinizi iptal etmek için RET yazıp 3434'e gönderin.",
+        "Hi, are we still on for dinner tonight?",
+        "URGENT: your account has been suspended. Verify your identity now at secure-login.example " +
+            "to avoid permanent closure. Reply STOP to opt out of further messages.",
+        "Kargonuz yola çıktı. Takip numarası: TR123456789",
+        "Limited time offer: get 3 months free when you upgrade today!"
+    ).map { MessageContext.of(it) }
+
+    /** Candidate configurations for a device with [cores] CPU cores. */
+    fun candidates(cores: Int): List<InterpreterConfig> {
+        val threadCounts = listOf(1, 2, 4).filter { it <= maxOf(cores, 1) }
+        return threadCounts.flatMap { threads ->
+            listOf(InterpreterConfig(threads, useXnnpack = true), InterpreterConfig(threads, useXnnpack = false))
+        }
+    }
+
+    /**
+     * Measures every candidate with a session built by [createSession] and
+     * returns the results, fastest first. Candidates that fail to build or
+     * run are left out.
+     */
+    fun measure(
+        candidates: List<InterpreterConfig>,
+        createSession: (InterpreterConfig) -> InferenceSession
+    ): List<InterpreterBenchmark> {
+        val results = mutableListOf<InterpreterBenchmark>()
+        for (config in candidates) {
+            try {
+                createSession(config).use { session ->
+                    repeat(WARMUP_ROUNDS) { runSamples(session) }
+
+                    val startTime = System.nanoTime()
+                    repeat(MEASURED_ROUNDS) { runSamples(session) }
+                    val elapsed = System.nanoTime() - startTime
+
+                    val micros = elapsed / 1000.0 / (MEASURED_ROUNDS * SAMPLE_MESSAGES.size)
+                    results.add(InterpreterBenchmark(config, micros))
+                    Log.d(TAG, "${config.label}: ${"%.1f".format(micros)} us/message")
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Skipping ${config.label}", e)
+            }
+        }
+        return results.sortedBy { it.microsPerMessage }
+    }
+
+    private fun runSamples(session: InferenceSession) {
+        for (message in SAMPLE_MESSAGES) {
+            session.run(message)
+        }
+    }
+}
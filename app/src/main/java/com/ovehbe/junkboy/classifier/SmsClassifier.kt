@@ -1,59 +1,246 @@
 package com.ovehbe.junkboy.classifier
 
 import android.content.Context
+import android.os.SystemClock
 import android.util.Log
 import com.ovehbe.junkboy.database.FilterType
 import com.ovehbe.junkboy.database.MessageCategory
+import com.ovehbe.junkboy.filters.BatchClassifier
 import com.ovehbe.junkboy.filters.FilterResult
+import com.ovehbe.junkboy.filters.Keyword
+import com.ovehbe.junkboy.filters.KeywordList
+import com.ovehbe.junkboy.filters.KeywordMatcher
+import com.ovehbe.junkboy.utils.PreferencesManager
+import com.google.gson.Gson
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import org.tensorflow.lite.Interpreter
+import org.tensorflow.lite.support.metadata.MetadataExtractor
 import java.io.FileInputStream
 import java.io.IOException
 import java.nio.MappedByteBuffer
 import java.nio.channels.FileChannel
 import java.util.*
 
-class SmsClassifier private constructor() {
+class SmsClassifier private constructor() : BatchClassifier {
     
-    private var interpreter: Interpreter? = null
     private var labels: List<String> = emptyList()
-    private var vocabulary: Map<String, Int> = emptyMap()
+    private var vocabulary: TokenVocabulary = InMemoryVocabulary.fromMap(emptyMap())
+    private var tokenizerSpec: TokenizerSpec = TokenizerSpec.VOCABULARY
     private var maxSequenceLength = 100
+    @Volatile
     private var isInitialized = false
     
+    // Per-label results, built once in initialize() and reused for every message
+    private var labelCategories: Array<MessageCategory> = emptyArray()
+    private var labelRules: Array<String> = emptyArray()
+    
+    // One interpreter per concurrent caller; published last in initialize()
+    @Volatile
+    private var pool: InterpreterPool? = null
+    private var modelBuffer: MappedByteBuffer? = null
+    
+    /** Identifies the loaded model, or null while it is not loaded and the fallback rules are used. */
+    @Volatile
+    var modelVersion: String? = null
+        private set
+    
+    /** Interpreter settings in use, picked by [InterpreterTuner] on first run. */
+    @Volatile
+    var interpreterConfig: InterpreterConfig = InterpreterConfig.DEFAULT
+        private set
+    
+    // Lifecycle: the model is loaded once on a background thread and shared by all users
+    private val lifecycleLock = Any()
+    private val lifecycleScope = CoroutineScope(Dispatchers.Default + SupervisorJob())
+    private var refCount = 0
+    private var readiness: CompletableDeferred<Boolean>? = null
+    
+    /** Wall-clock time the last successful initialization took, or -1 if the model is not loaded. */
+    @Volatile
+    var initDurationMs: Long = -1
+        private set
+    
+    val isReady: Boolean get() = isInitialized
+    
     companion object {
         private const val TAG = "SmsClassifier"
         private const val MODEL_FILE = "sms_model.tflite"
         private const val LABELS_FILE = "labels.txt"
         private const val VOCAB_FILE = "vocabulary.txt"
+        private const val VOCAB_BINARY_FILE = "vocabulary.bin"
+        
+        /** Largest number of messages run through the interpreter in one invocation. */
+        const val MAX_BATCH_SIZE = 64
+        
+        private const val MODEL_KEY_SAMPLES = 4096
+        
+        // How long classify() waits for a model that is still loading before falling back
+        private const val READY_TIMEOUT_MS = 2000L
+        
+        // Indicator lists of the fallback rules, matched anywhere in the folded text in one pass
+        private val fallbackMatcher: KeywordMatcher by lazy {
+            val transactionIndicators = listOf(
+                // Turkish terms
+                "banka", "ödeme", "bakiye", "hesap", "fatura", "tutar", "tutarli", 
+                "abonelik", "aboneliğiniz", "son ödeme tarihi", "ödemek için",
+                "kredi", "borç", "işlem", "havale", "transfer", "kart",
+                // English terms
+                "bank", "payment", "balance", "account", "bill", "amount",
+                "subscription", "due date", "credit", "debt", "transaction",
+                "transfer", "atm", "invoice"
+            )
+            val promotionIndicators = listOf(
+                "indirim", "kampanya", "fırsat", "özel", "teklif", "promosyon",
+                "discount", "sale", "offer", "deal", "promotion", "special"
+            )
+            val notificationIndicators = listOf(
+                "hatırlatma", "bilgilendirme", "uyarı", "kod", "doğrulama", "aktivasyon",
+                "reminder", "notification", "alert", "code", "verification", "activation",
+                "otp", "randevu", "appointment", "delivery", "teslimat"
+            )
+            val junkIndicators = listOf(
+                // High confidence junk terms
+                "tıklayınız", "tıkla", "kazan", "hediye", "ödül", "çekiliş", "şanslı",
+                "click", "win", "prize", "winner", "congratulations", "selected",
+                "bonus", "free money", "cash prize", "ücretsiz para"
+            )
+            KeywordMatcher.compile(
+                transactionIndicators.map { Keyword(it, KeywordList.TRANSACTION) } +
+                    promotionIndicators.map { Keyword(it, KeywordList.PROMOTION) } +
+                    notificationIndicators.map { Keyword(it, KeywordList.NOTIFICATION) } +
+                    junkIndicators.map { Keyword(it, KeywordList.JUNK) }
+            )
+        }
         
         @Volatile
         private var INSTANCE: SmsClassifier? = null
         
         fun getInstance(): SmsClassifier {
             return INSTANCE ?: synchronized(this) {
-                val instance = SmsClassifier()
-                INSTANCE = instance
-                instance
+                INSTANCE ?: SmsClassifier().also { INSTANCE = it }
+            }
+        }
+    }
+    
+    /**
+     * Registers a user of the classifier. The first caller starts loading the
+     * model in the background; later callers share the same load. Every call
+     * must be paired with [release]. The returned handle completes with true
+     * once the model is ready, or false if it could not be loaded.
+     */
+    fun acquire(context: Context): Deferred<Boolean> = synchronized(lifecycleLock) {
+        refCount++
+        
+        val current = readiness
+        // Reuse a load that is running or succeeded; retry one that failed
+        if (current != null && !(current.isCompleted && !isInitialized)) {
+            return current
+        }
+        
+        val appContext = context.applicationContext
+        val deferred = CompletableDeferred<Boolean>()
+        readiness = deferred
+        lifecycleScope.launch {
+            deferred.complete(initialize(appContext))
+        }
+        deferred
+    }
+    
+    /**
+     * Drops a user registered with [acquire]. The model is closed when the
+     * last user releases it, after any load in progress has finished.
+     */
+    fun release() {
+        val deferred = synchronized(lifecycleLock) {
+            if (refCount == 0) {
+                Log.w(TAG, "release() called without a matching acquire()")
+                return
             }
+            refCount--
+            if (refCount > 0) return
+            readiness ?: return
         }
+        
+        lifecycleScope.launch {
+            deferred.await()
+            synchronized(lifecycleLock) {
+                // Nobody re-acquired this load in the meantime
+                if (refCount == 0 && readiness === deferred) {
+                    readiness = null
+                    cleanup()
+                }
+            }
+        }
+    }
+    
+    /**
+     * Waits up to [timeoutMs] for the model to finish loading. Returns false
+     * if it is not loaded in time, failed to load, or was never acquired.
+     */
+    suspend fun awaitReady(timeoutMs: Long = READY_TIMEOUT_MS): Boolean {
+        if (isInitialized) return true
+        val deferred = synchronized(lifecycleLock) { readiness } ?: return false
+        return withTimeoutOrNull(timeoutMs) { deferred.await() } ?: false
     }
     
-    fun initialize(context: Context): Boolean {
+    private fun initialize(context: Context): Boolean {
+        val startTime = SystemClock.elapsedRealtime()
         return try {
             // Load TensorFlow Lite model
-            val modelBuffer = loadModelFile(context, MODEL_FILE)
-            interpreter = Interpreter(modelBuffer)
+            val modelBuffer = mapAsset(context, MODEL_FILE)
             
             // Load labels
             labels = loadLabels(context, LABELS_FILE)
+            labelCategories = labels.map { toCategory(it) }.toTypedArray()
+            labelRules = labels.map { "ml_model:$it" }.toTypedArray()
             
-            // Load vocabulary (if available)
-            vocabulary = loadVocabulary(context, VOCAB_FILE)
+            // Hashing models need no vocabulary; otherwise load it (if available)
+            tokenizerSpec = loadTokenizerSpec(modelBuffer)
+            vocabulary = if (tokenizerSpec.isHashing) {
+                InMemoryVocabulary.fromMap(emptyMap())
+            } else {
+                loadVocabulary(context)
+            }
+            
+            // Interpreter settings measured for this model on this device, if any yet
+            val modelKey = modelKeyOf(modelBuffer)
+            val tuning = PreferencesManager(context).getInterpreterTuning()?.takeIf { it.modelKey == modelKey }
+            val config = tuning?.selected ?: InterpreterConfig.DEFAULT
+            
+            val pool = buildPool(modelBuffer, config)
             
+            this.modelBuffer = modelBuffer
+            modelVersion = modelKey
+            interpreterConfig = config
+            this.pool = pool
             isInitialized = true
-            Log.d(TAG, "SmsClassifier initialized successfully")
+            initDurationMs = SystemClock.elapsedRealtime() - startTime
+            Log.i(TAG, "SmsClassifier initialized in $initDurationMs ms")
             Log.d(TAG, "Labels: $labels")
-            Log.d(TAG, "Vocabulary size: ${vocabulary.size}")
+            if (tokenizerSpec.isHashing) {
+                Log.d(TAG, "Hashing tokenizer: ${tokenizerSpec.buckets} buckets, interpreter pool capacity: ${pool.capacity}")
+            } else {
+                Log.d(TAG, "Vocabulary size: ${vocabulary.size}, interpreter pool capacity: ${pool.capacity}")
+            }
+            Log.d(TAG, "Interpreter config: ${config.label}")
+            
+            if (tuning == null) {
+                // Benchmarked while the default settings already serve, so the first load is not held up
+                lifecycleScope.launch {
+                    try {
+                        retune(context)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Interpreter tuning failed, keeping the default config", e)
+                    }
+                }
+            }
             
             true
         } catch (e: Exception) {
@@ -63,107 +250,191 @@ class SmsClassifier private constructor() {
         }
     }
     
-    fun classify(text: String): FilterResult {
-        if (!isInitialized || interpreter == null) {
+    /**
+     * Classifies [text] with the model. If the model is still loading this
+     * waits briefly for it instead of degrading to the rule-based fallback.
+     */
+    suspend fun classify(message: MessageContext): FilterResult {
+        if (!isInitialized && !awaitReady()) {
             Log.w(TAG, "Classifier not initialized, using fallback classification")
-            return fallbackClassification(text)
+            return fallbackClassification(message)
         }
         
+        val pool = pool ?: return fallbackClassification(message)
         return try {
-            // Preprocess the input text
-            val inputArray = preprocessText(text)
-            
-            // Run inference
-            val outputArray = Array(1) { FloatArray(labels.size) }
-            interpreter?.run(inputArray, outputArray)
-            
-            // Get prediction results
-            val predictions = outputArray[0]
-            val maxIndex = predictions.indices.maxByOrNull { predictions[it] } ?: 0
-            val confidence = predictions[maxIndex]
-            val predictedLabel = labels.getOrNull(maxIndex) ?: "GENERAL"
-            
-            // Convert label to MessageCategory
-            val category = when (predictedLabel.uppercase()) {
-                "JUNK", "SPAM" -> MessageCategory.JUNK
-                "PROMOTION", "MARKETING" -> MessageCategory.PROMOTION
-                "NOTIFICATION", "ALERT" -> MessageCategory.NOTIFICATION
-                "TRANSACTION", "BANKING" -> MessageCategory.TRANSACTION
-                else -> MessageCategory.GENERAL
+            pool.use { session ->
+                session.run(message)
+                resultForRow(session, 0)
             }
-            
-            // Determine if message should be blocked (only junk messages)
-            val isBlocked = category == MessageCategory.JUNK && confidence > 0.7f
-            
-            Log.d(TAG, "Classification: $predictedLabel (confidence: $confidence)")
-            
-            FilterResult(
-                isBlocked = isBlocked,
-                category = category,
-                filterType = FilterType.ML_CLASSIFICATION,
-                confidence = confidence,
-                matchedRule = "ml_model:$predictedLabel"
-            )
-            
         } catch (e: Exception) {
             Log.e(TAG, "Error during classification", e)
-            fallbackClassification(text)
+            fallbackClassification(message)
         }
     }
     
-    private fun preprocessText(text: String): Array<FloatArray> {
-        // Simple tokenization and padding approach
-        // In a real implementation, this should match your training preprocessing
-        
-        val cleanText = text.lowercase()
-            .replace(Regex("[^a-z0-9\\sçğıöşü]"), " ") // Keep Turkish characters
-            .replace(Regex("\\s+"), " ")
-            .trim()
-        
-        val tokens = cleanText.split(" ")
-        val tokenIds = mutableListOf<Int>()
-        
-        // Convert tokens to IDs using vocabulary
-        for (token in tokens.take(maxSequenceLength)) {
-            val tokenId = vocabulary[token] ?: vocabulary["<UNK>"] ?: 0
-            tokenIds.add(tokenId)
+    /**
+     * Classifies several messages with one interpreter invocation per
+     * [MAX_BATCH_SIZE] messages of similar length instead of one per
+     * message. Results are in the same order as [messages].
+     */
+    override suspend fun classifyBatch(messages: List<MessageContext>): List<FilterResult> {
+        if (messages.isEmpty()) return emptyList()
+        if (!isInitialized && !awaitReady()) {
+            Log.w(TAG, "Classifier not initialized, using fallback classification")
+            return messages.map { fallbackClassification(it) }
         }
         
-        // Pad or truncate to maxSequenceLength
-        while (tokenIds.size < maxSequenceLength) {
-            tokenIds.add(0) // Padding token
+        // Messages of similar length end up next to each other and share a sequence length bucket
+        val order = messages.indices.sortedBy { messages[it].tokenCount }
+        val sorted = order.map { messages[it] }
+        val results = arrayOfNulls<FilterResult>(messages.size)
+        var start = 0
+        while (start < sorted.size) {
+            val end = minOf(start + MAX_BATCH_SIZE, sorted.size)
+            var index = start
+            try {
+                val pool = pool ?: throw IllegalStateException("Classifier was released")
+                pool.use { session ->
+                    while (index < end) {
+                        val rows = session.run(sorted, index, end)
+                        for (row in 0 until rows) {
+                            results[order[index + row]] = resultForRow(session, row)
+                        }
+                        index += rows
+                    }
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Error during batch classification", e)
+                for (remaining in index until end) {
+                    results[order[remaining]] = fallbackClassification(sorted[remaining])
+                }
+            }
+            start = end
         }
+        return results.requireNoNulls().asList()
+    }
+    
+    /**
+     * Benchmarks the interpreter configurations again, saves the results and
+     * switches to the fastest. Returns null if the model is not loaded or no
+     * configuration could be measured.
+     */
+    suspend fun retune(context: Context): InterpreterTuning? = withContext(Dispatchers.Default) {
+        val modelBuffer = modelBuffer ?: return@withContext null
+        val tuning = tune(modelBuffer, modelKeyOf(modelBuffer))
+        if (tuning.results.isEmpty()) return@withContext null
+        PreferencesManager(context).setInterpreterTuning(tuning)
         
-        if (tokenIds.size > maxSequenceLength) {
-            tokenIds.subList(maxSequenceLength, tokenIds.size).clear()
+        val newPool = buildPool(modelBuffer, tuning.selected)
+        val oldPool = synchronized(lifecycleLock) {
+            val oldPool = pool
+            if (oldPool == null) {
+                // Released while we were measuring
+                newPool.close()
+                return@withContext tuning
+            }
+            pool = newPool
+            interpreterConfig = tuning.selected
+            oldPool
+        }
+        oldPool.close()
+        Log.i(TAG, "Switched interpreter config to ${tuning.selected.label}")
+        tuning
+    }
+    
+    private fun tune(modelBuffer: MappedByteBuffer, modelKey: String): InterpreterTuning {
+        val cores = Runtime.getRuntime().availableProcessors()
+        val results = InterpreterTuner.measure(InterpreterTuner.candidates(cores)) { config ->
+            createSession(modelBuffer, config)
+        }
+        val selected = results.firstOrNull()?.config ?: InterpreterConfig.DEFAULT
+        return InterpreterTuning(modelKey, selected, results)
+    }
+    
+    private fun buildPool(modelBuffer: MappedByteBuffer, config: InterpreterConfig): InterpreterPool {
+        // Every session shares the mapped model and vocabulary, but has its own interpreter, encoder and buffers
+        val pool = InterpreterPool(InterpreterPool.defaultCapacity(config.numThreads)) {
+            createSession(modelBuffer, config)
+        }
+        pool.prime()
+        return pool
+    }
+    
+    private fun createSession(modelBuffer: MappedByteBuffer, config: InterpreterConfig): InferenceSession {
+        return InferenceSession(
+            Interpreter(modelBuffer, config.toOptions()),
+            createEncoder(),
+            maxSequenceLength,
+            labels.size
+        )
+    }
+    
+    private fun createEncoder(): SequenceEncoder {
+        val spec = tokenizerSpec
+        return if (spec.isHashing) HashingEncoder(spec.buckets, spec.stemLength) else TokenEncoder(vocabulary)
+    }
+    
+    /** Identifies the model contents: its size plus a hash of bytes sampled across the whole file. */
+    private fun modelKeyOf(modelBuffer: MappedByteBuffer): String {
+        val size = modelBuffer.capacity()
+        val step = maxOf(1, size / MODEL_KEY_SAMPLES)
+        var hash = 0
+        for (position in 0 until size step step) {
+            hash = 31 * hash + modelBuffer.get(position)
+        }
+        return "$MODEL_FILE:$size:${Integer.toHexString(hash)}"
+    }
+    
+    /** Queue wait metrics of the interpreter pool, or null while the model is not loaded. */
+    fun poolStats(): InterpreterPool.Stats? = pool?.stats()
+    
+    /** Builds the result for one row of the session's last run. */
+    private fun resultForRow(session: InferenceSession, row: Int): FilterResult {
+        // Get prediction results
+        var maxIndex = 0
+        var confidence = Float.NEGATIVE_INFINITY
+        for (i in labels.indices) {
+            val score = session.score(row, i)
+            if (score > confidence) {
+                confidence = score
+                maxIndex = i
+            }
         }
+        val category = labelCategories.getOrElse(maxIndex) { MessageCategory.GENERAL }
         
-        // Convert to float array for TensorFlow Lite
-        val inputArray = Array(1) { FloatArray(maxSequenceLength) }
-        for (i in tokenIds.indices) {
-            inputArray[0][i] = tokenIds[i].toFloat()
+        // Determine if message should be blocked (only junk messages)
+        val isBlocked = category == MessageCategory.JUNK && confidence > 0.7f
+        
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Classification: ${labels.getOrNull(maxIndex)} (confidence: $confidence)")
         }
         
-        return inputArray
+        return FilterResult(
+            isBlocked = isBlocked,
+            category = category,
+            filterType = FilterType.ML_CLASSIFICATION,
+            confidence = confidence,
+            matchedRule = labelRules.getOrElse(maxIndex) { "ml_model:GENERAL" }
+        )
+    }
+    
+    private fun toCategory(label: String): MessageCategory {
+        // Convert label to MessageCategory
+        return when (label.uppercase()) {
+            "JUNK", "SPAM" -> MessageCategory.JUNK
+            "PROMOTION", "MARKETING" -> MessageCategory.PROMOTION
+            "NOTIFICATION", "ALERT" -> MessageCategory.NOTIFICATION
+            "TRANSACTION", "BANKING" -> MessageCategory.TRANSACTION
+            else -> MessageCategory.GENERAL
+        }
     }
     
-    private fun fallbackClassification(text: String): FilterResult {
+    private fun fallbackClassification(message: MessageContext): FilterResult {
         // Simple rule-based fallback when ML model is not available
-        val lowerText = text.lowercase()
+        val hits = fallbackMatcher.findAll(message.plain)
         
         // Check for transaction patterns FIRST (higher priority than junk)
-        val transactionIndicators = listOf(
-            // Turkish terms
-            "banka", "ödeme", "bakiye", "hesap", "fatura", "tutar", "tutarli", 
-            "abonelik", "aboneliğiniz", "son ödeme tarihi", "ödemek için",
-            "kredi", "borç", "işlem", "havale", "transfer", "kart",
-            // English terms
-            "bank", "payment", "balance", "account", "bill", "amount",
-            "subscription", "due date", "credit", "debt", "transaction",
-            "transfer", "atm", "invoice"
-        )
-        
-        if (transactionIndicators.any { lowerText.contains(it) }) {
+        if (hits.count(KeywordList.TRANSACTION) > 0) {
             return FilterResult(
                 isBlocked = false,
                 category = MessageCategory.TRANSACTION,
@@ -174,12 +445,7 @@ class SmsClassifier private constructor() {
         }
         
         // Check for promotion patterns
-        val promotionIndicators = listOf(
-            "indirim", "kampanya", "fırsat", "özel", "teklif", "promosyon",
-            "discount", "sale", "offer", "deal", "promotion", "special"
-        )
-        
-        if (promotionIndicators.any { lowerText.contains(it) }) {
+        if (hits.count(KeywordList.PROMOTION) > 0) {
             return FilterResult(
                 isBlocked = false,
                 category = MessageCategory.PROMOTION,
@@ -190,13 +456,7 @@ class SmsClassifier private constructor() {
         }
         
         // Check for notification patterns
-        val notificationIndicators = listOf(
-            "hatırlatma", "bilgilendirme", "uyarı", "kod", "doğrulama", "aktivasyon",
-            "reminder", "notification", "alert", "code", "verification", "activation",
-            "otp", "randevu", "appointment", "delivery", "teslimat"
-        )
-        
-        if (notificationIndicators.any { lowerText.contains(it) }) {
+        if (hits.count(KeywordList.NOTIFICATION) > 0) {
             return FilterResult(
                 isBlocked = false,
                 category = MessageCategory.NOTIFICATION,
@@ -207,14 +467,7 @@ class SmsClassifier private constructor() {
         }
         
         // Check for obvious junk patterns (LAST to avoid false positives)
-        val junkIndicators = listOf(
-            // High confidence junk terms
-            "tıklayınız", "tıkla", "kazan", "hediye", "ödül", "çekiliş", "şanslı",
-            "click", "win", "prize", "winner", "congratulations", "selected",
-            "bonus", "free money", "cash prize", "ücretsiz para"
-        )
-        
-        if (junkIndicators.any { lowerText.contains(it) }) {
+        if (hits.count(KeywordList.JUNK) > 0) {
             return FilterResult(
                 isBlocked = true,
                 category = MessageCategory.JUNK,
@@ -234,7 +487,7 @@ class SmsClassifier private constructor() {
         )
     }
     
-    private fun loadModelFile(context: Context, filename: String): MappedByteBuffer {
+    private fun mapAsset(context: Context, filename: String): MappedByteBuffer {
         val fileDescriptor = context.assets.openFd(filename)
         val inputStream = FileInputStream(fileDescriptor.fileDescriptor)
         val fileChannel = inputStream.channel
@@ -252,26 +505,59 @@ class SmsClassifier private constructor() {
         }
     }
     
-    private fun loadVocabulary(context: Context, filename: String): Map<String, Int> {
-        return try {
-            val vocab = mutableMapOf<String, Int>()
-            context.assets.open(filename).bufferedReader().forEachLine { line ->
-                val parts = line.split("\t")
-                if (parts.size == 2) {
-                    vocab[parts[0]] = parts[1].toIntOrNull() ?: 0
+    /** Reads the tokenizer the model was trained with from its metadata; the vocabulary if it has none. */
+    private fun loadTokenizerSpec(modelBuffer: MappedByteBuffer): TokenizerSpec {
+        try {
+            val extractor = MetadataExtractor(modelBuffer.duplicate())
+            if (!extractor.hasMetadata()) return TokenizerSpec.VOCABULARY
+            val metadata = extractor.modelMetadata ?: return TokenizerSpec.VOCABULARY
+            for (subgraph in 0 until metadata.subgraphMetadataLength()) {
+                val subgraphMetadata = metadata.subgraphMetadata(subgraph)
+                for (entry in 0 until subgraphMetadata.customMetadataLength()) {
+                    val customMetadata = subgraphMetadata.customMetadata(entry)
+                    if (customMetadata.name() != TokenizerSpec.METADATA_NAME) continue
+                    val json = ByteArray(customMetadata.dataLength()) { customMetadata.data(it).toByte() }
+                    return Gson().fromJson(String(json, Charsets.UTF_8), TokenizerSpec::class.java)
+                        ?: TokenizerSpec.VOCABULARY
                 }
             }
-            vocab
+        } catch (e: Exception) {
+            // Metadata is optional; a model without readable metadata is a vocabulary model
+            Log.w(TAG, "Could not read model metadata, using the vocabulary tokenizer", e)
+        }
+        return TokenizerSpec.VOCABULARY
+    }
+    
+    private fun loadVocabulary(context: Context): TokenVocabulary {
+        // Prefer the binary vocabulary generated at build time: it is mapped, not parsed
+        try {
+            return BinaryVocabulary(mapAsset(context, VOCAB_BINARY_FILE))
         } catch (e: IOException) {
-            Log.w(TAG, "Could not load vocabulary file: $filename, using simple tokenization")
-            emptyMap()
+            Log.w(TAG, "Could not map $VOCAB_BINARY_FILE, parsing $VOCAB_FILE instead")
+        }
+        
+        return try {
+            val vocab = context.assets.open(VOCAB_FILE).bufferedReader().useLines {
+                VocabularyCompiler.parse(it)
+            }
+            InMemoryVocabulary.fromMap(vocab)
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not load vocabulary file: $VOCAB_FILE, using simple tokenization")
+            InMemoryVocabulary.fromMap(emptyMap())
         }
     }
     
-    fun cleanup() {
-        interpreter?.close()
-        interpreter = null
+    private fun cleanup() {
+        val pool = pool
+        this.pool = null
+        modelBuffer = null
+        modelVersion = null
         isInitialized = false
+        pool?.let {
+            Log.d(TAG, "Interpreter pool stats: ${it.stats()}")
+            it.close()
+        }
+        initDurationMs = -1
         Log.d(TAG, "SmsClassifier cleaned up")
     }
 } 
\ No newline at end of file
@@ -0,0 +1,67 @@
+package com.ovehbe.junkboy.classifier
+
+import org.tensorflow.lite.DataType
+import org.tensorflow.lite.Tensor
+import java.nio.ByteBuffer
+import kotlin.math.roundToInt
+
+/**
+ * Element type and quantization parameters of a model tensor, read when the
+ * model is loaded. Lets the same inference code feed float, int32 and fully
+ * integer-quantized (int8/uint8) models.
+ */
+class TensorFormat private constructor(
+    val dataType: DataType,
+    val scale: Float,
+    val zeroPoint: Int
+) {
+
+    val bytesPerElement: Int = when (dataType) {
+        DataType.INT8, DataType.UINT8 -> 1
+        DataType.FLOAT32, DataType.INT32 -> 4
+        else -> throw IllegalArgumentException("Unsupported tensor type: $dataType")
+    }
+
+    val isQuantized: Boolean
+        get() = dataType == DataType.INT8 || dataType == DataType.UINT8
+
+    /** Writes [value] as element [index] of [buffer], quantizing it if needed. */
+    fun put(buffer: ByteBuffer, index: Int, value: Int) {
+        val position = index * bytesPerElement
+        when (dataType) {
+            DataType.FLOAT32 -> buffer.putFloat(position, value.toFloat())
+            DataType.INT32 -> buffer.putInt(position, value)
+            DataType.INT8 -> buffer.put(position, quantize(value).coerceIn(-128, 127).toByte())
+            else -> buffer.put(position, quantize(value).coerceIn(0, 255).toByte())
+        }
+    }
+
+    /** Reads element [index] of [buffer] as a real value, dequantizing it if needed. */
+    fun get(buffer: ByteBuffer, index: Int): Float {
+        val position = index * bytesPerElement
+        return when (dataType) {
+            DataType.FLOAT32 -> buffer.getFloat(position)
+            DataType.INT32 -> buffer.getInt(position).toFloat()
+            DataType.INT8 -> (buffer.get(position) - zeroPoint) * scale
+            else -> ((buffer.get(position).toInt() and 0xFF) - zeroPoint) * scale
+        }
+    }
+
+    private fun quantize(value: Int): Int {
+        return (value / scale).roundToInt() + zeroPoint
+    }
+
+    override fun toString(): String {
+        return if (isQuantized) "$dataType(scale=$scale, zeroPoint=$zeroPoint)" else dataType.toString()
+    }
+
+    companion object {
+
+        fun of(tensor: Tensor): TensorFormat {
+            val params = tensor.quantizationParams()
+            // Unquantized tensors report a scale of 0; treat them as identity
+            val scale = if (params.scale > 0f) params.scale else 1f
+            return TensorFormat(tensor.dataType(), scale, params.zeroPoint)
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.ovehbe.junkboy.classifier
+
+/**
+ * How the model expects text to be turned into input ids. Read from the
+ * JSON in the model's "tokenizer" custom metadata, for example
+ * `{"type": "hashing", "buckets": 20000, "stemLength": 5}`. Models without
+ * it use the vocabulary file.
+ */
+data class TokenizerSpec(
+    val type: String = TYPE_VOCABULARY,
+    val buckets: Int = 0,
+    val stemLength: Int = HashingEncoder.DEFAULT_STEM_LENGTH
+) {
+
+    val isHashing: Boolean
+        get() = type == TYPE_HASHING
+
+    companion object {
+        const val TYPE_VOCABULARY = "vocabulary"
+        const val TYPE_HASHING = "hashing"
+
+        /** Name of the custom metadata entry holding the spec. */
+        const val METADATA_NAME = "tokenizer"
+
+        val VOCABULARY = TokenizerSpec()
+    }
+}
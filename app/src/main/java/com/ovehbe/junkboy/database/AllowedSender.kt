@@ -1,10 +1,14 @@
 package com.ovehbe.junkboy.database
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import java.util.Date
 
-@Entity(tableName = "allowed_senders")
+@Entity(
+    tableName = "allowed_senders",
+    indices = [Index(value = ["phoneNumber"], unique = true)]
+)
 data class AllowedSender(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
@@ -4,11 +4,13 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 import android.content.Context
 
 @Database(
-    entities = [FilteredMessage::class, AllowedSender::class],
-    version = 2,
+    entities = [FilteredMessage::class, AllowedSender::class, SenderReputationEntry::class],
+    version = 5,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
@@ -16,11 +18,51 @@ abstract class AppDatabase : RoomDatabase() {
     
     abstract fun filteredMessageDao(): FilteredMessageDao
     abstract fun allowedSenderDao(): AllowedSenderDao
+    abstract fun senderReputationDao(): SenderReputationDao
     
     companion object {
         @Volatile
         private var INSTANCE: AppDatabase? = null
         
+        // Adds the sender reputation table without dropping the filtered messages
+        private val MIGRATION_2_3 = object : Migration(2, 3) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `sender_reputation` (" +
+                        "`sender` TEXT NOT NULL, " +
+                        "`generalCount` INTEGER NOT NULL, " +
+                        "`promotionCount` INTEGER NOT NULL, " +
+                        "`notificationCount` INTEGER NOT NULL, " +
+                        "`transactionCount` INTEGER NOT NULL, " +
+                        "`junkCount` INTEGER NOT NULL, " +
+                        "`blockedCount` INTEGER NOT NULL, " +
+                        "`updatedAt` INTEGER NOT NULL, " +
+                        "PRIMARY KEY(`sender`))"
+                )
+            }
+        }
+        
+        // One row per number: keep the newest of any duplicates, then index the column
+        private val MIGRATION_3_4 = object : Migration(3, 4) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "DELETE FROM `allowed_senders` WHERE `id` NOT IN " +
+                        "(SELECT MAX(`id`) FROM `allowed_senders` GROUP BY `phoneNumber`)"
+                )
+                db.execSQL(
+                    "CREATE UNIQUE INDEX IF NOT EXISTS `index_allowed_senders_phoneNumber` " +
+                        "ON `allowed_senders` (`phoneNumber`)"
+                )
+            }
+        }
+        
+        // Remembers which blocks the near-duplicate index may be rebuilt from
+        private val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `filtered_messages` ADD COLUMN `nearDuplicateGeneration` INTEGER")
+            }
+        }
+        
         fun getDatabase(context: Context): AppDatabase {
             return INSTANCE ?: synchronized(this) {
                 val instance = Room.databaseBuilder(
@@ -28,6 +70,7 @@ abstract class AppDatabase : RoomDatabase() {
                     AppDatabase::class.java,
                     "junkboy_database"
                 )
+                .addMigrations(MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
                 .fallbackToDestructiveMigration()
                 .build()
                 INSTANCE = instance
@@ -17,21 +17,8 @@ data class FilteredMessage(
     val filterType: FilterType,
     val isBlocked: Boolean = false,
     val isUserOverride: Boolean = false,
-    val isRead: Boolean = false
+    val isRead: Boolean = false,
+    
+    // Verdict generation under which this block can answer near-duplicates; null if it cannot
+    val nearDuplicateGeneration: Long? = null
 )
-
-enum class MessageCategory {
-    GENERAL,
-    PROMOTION,
-    NOTIFICATION,
-    TRANSACTION,
-    JUNK
-}
-
-enum class FilterType {
-    ML_CLASSIFICATION,
-    KEYWORD_FILTER,
-    REGEX_FILTER,
-    USER_RULE,
-    UNDER_ATTACK_MODE
-} 
\ No newline at end of file
@@ -28,6 +28,9 @@ interface FilteredMessageDao {
     @Query("SELECT * FROM filtered_messages WHERE receivedAt >= :since ORDER BY receivedAt DESC")
     fun getMessagesAfter(since: Date): Flow<List<FilteredMessage>>
     
+    @Query("SELECT * FROM filtered_messages WHERE isBlocked = 1 AND isUserOverride = 0 AND nearDuplicateGeneration = :generation AND receivedAt >= :since ORDER BY receivedAt DESC LIMIT :limit")
+    suspend fun getRecentNearDuplicateSources(generation: Long, since: Date, limit: Int): List<FilteredMessage>
+    
     @Query("SELECT COUNT(*) FROM filtered_messages WHERE category = :category")
     suspend fun getCountByCategory(category: MessageCategory): Int
     
@@ -38,7 +41,7 @@ interface FilteredMessageDao {
     suspend fun insertMessage(message: FilteredMessage): Long
     
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    suspend fun insertMessages(messages: List<FilteredMessage>)
+    suspend fun insertMessages(messages: List<FilteredMessage>): List<Long>
     
     @Update
     suspend fun updateMessage(message: FilteredMessage)
@@ -0,0 +1,19 @@
+package com.ovehbe.junkboy.database
+
+import androidx.room.*
+
+@Dao
+interface SenderReputationDao {
+    
+    @Query("SELECT * FROM sender_reputation ORDER BY updatedAt DESC LIMIT :limit")
+    suspend fun getRecentEntries(limit: Int): List<SenderReputationEntry>
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertEntries(entries: List<SenderReputationEntry>)
+    
+    @Query("DELETE FROM sender_reputation WHERE sender = :sender")
+    suspend fun deleteEntry(sender: String)
+    
+    @Query("DELETE FROM sender_reputation")
+    suspend fun deleteAllEntries()
+}
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.ovehbe.junkboy.database
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+import com.ovehbe.junkboy.filters.SenderHistory
+
+/** Saved form of a [SenderHistory], one row per sender. */
+@Entity(tableName = "sender_reputation")
+data class SenderReputationEntry(
+    @PrimaryKey
+    val sender: String,
+    
+    val generalCount: Int,
+    val promotionCount: Int,
+    val notificationCount: Int,
+    val transactionCount: Int,
+    val junkCount: Int,
+    val blockedCount: Int,
+    val updatedAt: Long
+) {
+    
+    fun toHistory(): SenderHistory {
+        val counts = IntArray(MessageCategory.values().size)
+        counts[MessageCategory.GENERAL.ordinal] = generalCount
+        counts[MessageCategory.PROMOTION.ordinal] = promotionCount
+        counts[MessageCategory.NOTIFICATION.ordinal] = notificationCount
+        counts[MessageCategory.TRANSACTION.ordinal] = transactionCount
+        counts[MessageCategory.JUNK.ordinal] = junkCount
+        return SenderHistory(sender, counts, blockedCount, updatedAt)
+    }
+    
+    companion object {
+        fun of(history: SenderHistory) = SenderReputationEntry(
+            sender = history.sender,
+            generalCount = history.countOf(MessageCategory.GENERAL),
+            promotionCount = history.countOf(MessageCategory.PROMOTION),
+            notificationCount = history.countOf(MessageCategory.NOTIFICATION),
+            transactionCount = history.countOf(MessageCategory.TRANSACTION),
+            junkCount = history.countOf(MessageCategory.JUNK),
+            blockedCount = history.blockedCount,
+            updatedAt = history.updatedAt
+        )
+    }
+}
@@ -0,0 +1,56 @@
+package com.ovehbe.junkboy.service
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+
+/**
+ * Takes what arrives on [channel] in batches, so a burst of messages is
+ * classified, stored and counted once instead of once per message.
+ *
+ * A message that arrives on its own is handed out at once, so quiet-time
+ * latency is unchanged. Only when more messages are already waiting does
+ * the batcher keep collecting, for at most [windowMillis] or until it has
+ * [maxSize] of them.
+ */
+class MicroBatcher<T : Any>(
+    private val channel: ReceiveChannel<T>,
+    private val maxSize: Int = DEFAULT_MAX_SIZE,
+    private val windowMillis: Long = DEFAULT_WINDOW_MILLIS
+) {
+
+    /** The next batch; null once the channel is closed and empty. */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    suspend fun next(): List<T>? {
+        val first = channel.receiveCatching().getOrNull() ?: return null
+        val batch = mutableListOf(first)
+        drainInto(batch)
+        if (batch.size == 1) return batch
+
+        val deadline = System.currentTimeMillis() + windowMillis
+        while (batch.size < maxSize) {
+            val remaining = deadline - System.currentTimeMillis()
+            if (remaining <= 0) break
+            // select takes an element or times out, never both, so nothing is lost
+            val next = select<T?> {
+                channel.onReceiveCatching { it.getOrNull() }
+                onTimeout(remaining) { null }
+            } ?: break
+            batch.add(next)
+            drainInto(batch)
+        }
+        return batch
+    }
+
+    private fun drainInto(batch: MutableList<T>) {
+        while (batch.size < maxSize) {
+            batch.add(channel.tryReceive().getOrNull() ?: return)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_SIZE = 32
+        const val DEFAULT_WINDOW_MILLIS = 20L
+    }
+}
@@ -4,22 +4,33 @@ import android.app.*
 import android.content.Context
 import android.content.Intent
 import android.os.IBinder
+import android.os.SystemClock
 import android.util.Log
 import androidx.core.app.NotificationCompat
 import com.ovehbe.junkboy.R
 import com.ovehbe.junkboy.classifier.SmsClassifier
+import com.ovehbe.junkboy.classifier.MessageContext
 import com.ovehbe.junkboy.database.AppDatabase
 import com.ovehbe.junkboy.database.FilteredMessage
 import com.ovehbe.junkboy.database.MessageCategory
-import com.ovehbe.junkboy.filters.CustomFilter
+import com.ovehbe.junkboy.filters.FilterPipeline
+import com.ovehbe.junkboy.filters.FilterState
+import com.ovehbe.junkboy.filters.LoadShedder
 import com.ovehbe.junkboy.utils.PreferencesManager
 import com.ovehbe.junkboy.utils.NotificationHelper
+import com.ovehbe.junkboy.utils.SharedFilterPipeline
+import com.ovehbe.junkboy.utils.SharedNearDuplicateIndex
 import com.ovehbe.junkboy.utils.SmsDeleter
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
 
 class SmsFilterService : Service() {
     
@@ -27,14 +38,35 @@ class SmsFilterService : Service() {
         private const val TAG = "SmsFilterService"
         private const val NOTIFICATION_ID = 1001
         private const val CHANNEL_ID = "sms_filter_service"
+        
+        // Messages waiting for a worker; a burst larger than this spills into the overflow
+        private const val QUEUE_CAPACITY = 64
+        private const val WORKER_COUNT = 2
+        
+        // Spilled messages, filtered with rules only by their own worker; past this
+        // each message is filtered with rules only as soon as it arrives
+        private const val OVERFLOW_CAPACITY = 256
     }
     
     private val serviceScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val queue = Channel<IncomingSms>(QUEUE_CAPACITY)
+    private val overflow = Channel<IncomingSms>(OVERFLOW_CAPACITY)
+    
+    // Messages received but not yet processed; the service stops once this stays 0 for the idle timeout
+    private val pending = AtomicInteger()
+    private var idleStopJob: Job? = null
+    private var lastStartId = 0
+    
+    // Drops to rules only while a flood outruns the workers; counts what it filtered meanwhile
+    private val loadShedder = LoadShedder()
+    private val shedFiltered = AtomicInteger()
+    private val shedBlocked = AtomicInteger()
     private lateinit var database: AppDatabase
     private lateinit var preferencesManager: PreferencesManager
     private lateinit var notificationHelper: NotificationHelper
     private lateinit var smsClassifier: SmsClassifier
     private lateinit var smsDeleter: SmsDeleter
+    private lateinit var filterPipeline: FilterPipeline
     
     override fun onCreate() {
         super.onCreate()
@@ -46,14 +78,22 @@ class SmsFilterService : Service() {
         notificationHelper = NotificationHelper(this)
         smsClassifier = SmsClassifier.getInstance()
         smsDeleter = SmsDeleter(this)
+        filterPipeline = SharedFilterPipeline.getInstance(this)
         
-        // Initialize ML classifier
+        // Start loading the ML classifier in the background
+        val classifierReady = smsClassifier.acquire(this)
         serviceScope.launch {
-            if (!smsClassifier.initialize(this@SmsFilterService)) {
+            if (!classifierReady.await()) {
                 Log.w(TAG, "ML classifier initialization failed, using rule-based filtering only")
             }
         }
         
+        // Workers live as long as the service, so setup is paid once per burst, not once per SMS
+        repeat(WORKER_COUNT) {
+            launchWorker(queue, isOverflow = false)
+        }
+        launchWorker(overflow, isOverflow = true)
+        
         createNotificationChannel()
     }
     
@@ -63,228 +103,209 @@ class SmsFilterService : Service() {
         // Start foreground service with notification
         startForeground(NOTIFICATION_ID, createServiceNotification())
         
-        // Process the SMS if intent contains message data
-        intent?.let { processIncomingSms(it) }
+        synchronized(this) {
+            lastStartId = startId
+            idleStopJob?.cancel()
+            idleStopJob = null
+        }
+        
+        // Queue the SMS if intent contains message data
+        val sms = intent?.let { IncomingSms.fromIntent(it) }
+        if (sms != null) {
+            pending.incrementAndGet()
+            if (queue.trySend(sms).isFailure && overflow.trySend(sms).isFailure) {
+                // The receiver may already have aborted the broadcast, so the message is
+                // filtered right away with rules only instead of being dropped
+                Log.w(TAG, "Filter queues full, filtering SMS from ${sms.sender} with rules only")
+                serviceScope.launch {
+                    try {
+                        processIncomingSms(listOf(sms), isOverflow = true)
+                    } finally {
+                        if (pending.decrementAndGet() == 0) scheduleIdleStop()
+                    }
+                }
+            }
+        } else if (pending.get() == 0) {
+            scheduleIdleStop()
+        }
         
         return START_NOT_STICKY
     }
     
+    /**
+     * Stops the service once no message has arrived for the idle timeout.
+     * Stopping with the last start id keeps a message that arrives while
+     * stopping from being dropped.
+     */
+    private fun scheduleIdleStop() {
+        synchronized(this) {
+            idleStopJob?.cancel()
+            val startId = lastStartId
+            idleStopJob = serviceScope.launch {
+                delay(preferencesManager.getWorkerIdleTimeoutMillis())
+                if (pending.get() == 0) {
+                    Log.d(TAG, "No messages for a while, stopping")
+                    stopSelf(startId)
+                }
+            }
+        }
+    }
+    
     override fun onBind(intent: Intent?): IBinder? = null
     
-    private fun processIncomingSms(intent: Intent) {
-        val sender = intent.getStringExtra("sender") ?: return
-        val message = intent.getStringExtra("message") ?: return
-        val timestamp = intent.getLongExtra("timestamp", System.currentTimeMillis())
-        val isObviousJunk = intent.getBooleanExtra("is_obvious_junk", false)
-        
+    private fun launchWorker(channel: Channel<IncomingSms>, isOverflow: Boolean) {
         serviceScope.launch {
-            try {
-                Log.d(TAG, "Processing SMS from $sender")
-                
-                // Check if sender is in allowed list - if so, don't filter
-                val isAllowed = database.allowedSenderDao().isAllowedSender(sender)
-                if (isAllowed) {
-                    Log.d(TAG, "Sender $sender is in allowed list, skipping filtering")
-                    
-                    // Create record but don't block
-                    val filteredMessage = FilteredMessage(
-                        sender = sender,
-                        messageBody = message,
-                        receivedAt = Date(timestamp),
-                        category = MessageCategory.GENERAL,
-                        confidence = 0.0f,
-                        filterType = com.ovehbe.junkboy.database.FilterType.KEYWORD_FILTER,
-                        isBlocked = false,
-                        isUserOverride = true, // Mark as user override since it's manually allowed
-                        isRead = false
-                    )
-                    
-                    database.filteredMessageDao().insertMessage(filteredMessage)
-                    stopSelf()
-                    return@launch
-                }
-                
-                // Get user preferences
-                val isUnderAttackMode = preferencesManager.isUnderAttackMode()
-                val isMlEnabled = preferencesManager.isMlFilteringEnabled()
-                val isKeywordEnabled = preferencesManager.isKeywordFilteringEnabled()
-                val isRegexEnabled = preferencesManager.isRegexFilteringEnabled()
-                val customKeywords = preferencesManager.getCustomKeywords()
-                val customRegexPatterns = preferencesManager.getCustomRegexPatterns()
-                
-                // If already marked as obvious junk by receiver, create blocked result
-                var filterResult = if (isObviousJunk) {
-                    com.ovehbe.junkboy.filters.FilterResult(
-                        isBlocked = true,
-                        category = MessageCategory.JUNK,
-                        filterType = com.ovehbe.junkboy.database.FilterType.KEYWORD_FILTER,
-                        confidence = 0.95f,
-                        matchedRule = "obvious_junk_receiver"
-                    )
-                } else {
-                    // Determine primary classification method based on user preferences and implement hierarchy
-                    when {
-                        isMlEnabled -> {
-                            // ML is enabled - use ML as primary classifier
-                            val mlResult = smsClassifier.classify(message)
-                            
-                            // Also run rule-based filtering for comparison if enabled
-                            val ruleResult = if (isKeywordEnabled || isRegexEnabled) {
-                                CustomFilter.filterMessage(
-                                    message = message,
-                                    sender = sender,
-                                    isUnderAttackMode = isUnderAttackMode,
-                                    customKeywords = if (isKeywordEnabled) customKeywords else emptyList(),
-                                    customRegexPatterns = if (isRegexEnabled) customRegexPatterns else emptyList()
-                                )
-                            } else null
-                            
-                            // Implement hierarchy: ML has precedence, rules can only enhance confidence
-                            if (ruleResult != null) {
-                                // When ML is enabled, always preserve ML_CLASSIFICATION FilterType
-                                // But respect blocking decisions from both methods
-                                when {
-                                    // If either method wants to block, respect the blocking decision
-                                    mlResult.isBlocked || ruleResult.isBlocked -> {
-                                        // Use the blocking result with higher confidence, but keep ML FilterType
-                                        if (mlResult.isBlocked && ruleResult.isBlocked) {
-                                            // Both want to block - use higher confidence
-                                            if (mlResult.confidence >= ruleResult.confidence) {
-                                                mlResult.copy(
-                                                    matchedRule = "ml_primary_block:${mlResult.matchedRule ?: "ml_default"}"
-                                                )
-                                            } else {
-                                                mlResult.copy(
-                                                    isBlocked = true,
-                                                    category = ruleResult.category,
-                                                    confidence = ruleResult.confidence,
-                                                    matchedRule = "ml_with_rule_block:${ruleResult.matchedRule}"
-                                                )
-                                            }
-                                        } else if (mlResult.isBlocked) {
-                                            // Only ML wants to block
-                                            mlResult.copy(
-                                                matchedRule = "ml_block:${mlResult.matchedRule ?: "ml_default"}"
-                                            )
-                                        } else {
-                                            // Only rule wants to block - use rule decision but mark as ML classification
-                                            mlResult.copy(
-                                                isBlocked = true,
-                                                category = ruleResult.category,
-                                                confidence = ruleResult.confidence,
-                                                matchedRule = "ml_enhanced_by_rule_block:${ruleResult.matchedRule}"
-                                            )
-                                        }
-                                    }
-                                    
-                                    // Neither wants to block - use ML result for categorization but consider rule confidence
-                                    else -> {
-                                        // For non-blocking categorization, use the result with higher confidence
-                                        // but always preserve ML FilterType
-                                        if (mlResult.confidence >= ruleResult.confidence) {
-                                            mlResult.copy(
-                                                matchedRule = "ml_primary:${mlResult.matchedRule ?: "ml_default"}"
-                                            )
-                                        } else {
-                                            // Rule has better categorization confidence - use it but mark as ML
-                                            mlResult.copy(
-                                                category = ruleResult.category,
-                                                confidence = ruleResult.confidence,
-                                                matchedRule = "ml_with_rule_category:${ruleResult.matchedRule}"
-                                            )
-                                        }
-                                    }
-                                }
-                            } else {
-                                // Only ML is enabled, use ML result
-                                mlResult
-                            }
-                        }
-                        isKeywordEnabled || isRegexEnabled -> {
-                            // ML disabled, use rule-based filtering only
-                            CustomFilter.filterMessage(
-                                message = message,
-                                sender = sender,
-                                isUnderAttackMode = isUnderAttackMode,
-                                customKeywords = if (isKeywordEnabled) customKeywords else emptyList(),
-                                customRegexPatterns = if (isRegexEnabled) customRegexPatterns else emptyList()
-                            )
-                        }
-                        else -> {
-                            // No filtering enabled, neutral result
-                            com.ovehbe.junkboy.filters.FilterResult(
-                                isBlocked = false,
-                                category = MessageCategory.GENERAL,
-                                filterType = com.ovehbe.junkboy.database.FilterType.KEYWORD_FILTER,
-                                confidence = 0.0f
-                            )
-                        }
-                    }
+            val batcher = MicroBatcher(channel)
+            while (true) {
+                val batch = batcher.next() ?: break
+                try {
+                    processIncomingSms(batch, isOverflow)
+                } finally {
+                    if (pending.addAndGet(-batch.size) == 0) scheduleIdleStop()
                 }
-                
-                // Create filtered message record
-                val filteredMessage = FilteredMessage(
-                    sender = sender,
-                    messageBody = message,
-                    receivedAt = Date(timestamp),
+            }
+        }
+    }
+    
+    /**
+     * Filters a batch of messages from one burst: one pipeline pass, one
+     * database transaction and one statistics update for the whole batch.
+     * Batches from the [overflow], and messages that found both queues full,
+     * always take the cheap path.
+     */
+    private suspend fun processIncomingSms(batch: List<IncomingSms>, isOverflow: Boolean) {
+        try {
+            Log.d(TAG, "Processing ${batch.size} SMS")
+            
+            val isShedding = updateLoad(batch) || isOverflow
+            val settings = preferencesManager.getPipelineSettings()
+            
+            // Folded once here and shared by every stage of the pipeline
+            val states = batch.map {
+                FilterState(MessageContext.of(it.message, it.sender), isReceiverFlagged = it.isObviousJunk)
+            }
+            filterPipeline.process(states, if (isShedding) LoadShedder.degrade(settings) else settings)
+            
+            val filteredMessages = batch.mapIndexed { index, sms ->
+                val filterResult = states[index].verdict
+                FilteredMessage(
+                    sender = sms.sender,
+                    messageBody = sms.message,
+                    receivedAt = Date(sms.timestamp),
                     category = filterResult.category,
                     confidence = filterResult.confidence,
                     filterType = filterResult.filterType,
                     isBlocked = filterResult.isBlocked,
-                    isUserOverride = false,
-                    isRead = false
-                )
-                
-                // Save to database
-                val messageId = database.filteredMessageDao().insertMessage(filteredMessage)
-                
-                Log.d(TAG, "Message classified as ${filterResult.category} (blocked: ${filterResult.isBlocked}, confidence: ${filterResult.confidence})")
-                
-                // Show notification - NotificationHelper now handles all category-specific logic
-                notificationHelper.showSmsNotification(
-                    filteredMessage.copy(id = messageId),
-                    filterResult.matchedRule
+                    // Allowed senders are recorded but never filtered; mark them as user override
+                    isUserOverride = states[index].isAllowed,
+                    isRead = false,
+                    nearDuplicateGeneration = states[index].nearDuplicateGeneration
                 )
-                
-                // Auto-delete junk if enabled and app is default SMS app
-                if (filterResult.isBlocked && preferencesManager.isAutoDeleteJunkEnabled()) {
-                    try {
-                        val deleted = smsDeleter.deleteJunkSms(sender, message, timestamp)
-                        if (deleted) {
-                            Log.i(TAG, "Auto-deleted junk SMS from system database")
-                            // Archive the deleted message
-                            smsDeleter.archiveDeletedMessage(filteredMessage.copy(id = messageId))
-                        }
-                    } catch (e: Exception) {
-                        Log.e(TAG, "Error during auto-delete", e)
-                    }
-                }
-                
-                // Log the blocking action for obvious junk
-                if (isObviousJunk) {
-                    Log.i(TAG, "Successfully blocked obvious junk message from $sender - broadcast aborted")
+            }
+            
+            // Save to database
+            val messageIds = database.filteredMessageDao().insertMessages(filteredMessages)
+            
+            val categoryCounts = mutableMapOf<MessageCategory, Int>()
+            var blockedCount = 0
+            batch.forEachIndexed { index, sms ->
+                val state = states[index]
+                if (state.isAllowed) {
+                    Log.d(TAG, "Sender ${sms.sender} is in allowed list, skipping filtering")
+                    return@forEachIndexed
                 }
                 
-                // Update statistics
-                updateFilteringStats(filterResult.category, filterResult.isBlocked)
+                val filteredMessage = filteredMessages[index].copy(id = messageIds[index])
+                handleFilteredMessage(sms, state, filteredMessage, isShedding)
                 
+                categoryCounts[filteredMessage.category] = (categoryCounts[filteredMessage.category] ?: 0) + 1
+                if (filteredMessage.isBlocked) blockedCount++
+            }
+            
+            if (isShedding) {
+                notificationHelper.showHeavyTrafficNotification(shedFiltered.get(), shedBlocked.get())
+            }
+            
+            // Update statistics
+            updateFilteringStats(categoryCounts, blockedCount)
+            
+        } catch (e: Exception) {
+            Log.e(TAG, "Error processing SMS", e)
+        }
+    }
+    
+    /**
+     * Feeds the load of [batch] to the [loadShedder] and returns whether it
+     * should take the cheap path: rules only, no auto-delete and one summary
+     * notification.
+     */
+    private fun updateLoad(batch: List<IncomingSms>): Boolean {
+        loadShedder.thresholds = preferencesManager.getLoadThresholds()
+        val waiting = pending.get() - batch.size
+        val latency = SystemClock.elapsedRealtime() - batch.minOf { it.queuedAt }
+        if (loadShedder.update(waiting, latency)) {
+            if (loadShedder.isShedding) {
+                Log.w(TAG, "Falling behind ($waiting waiting, $latency ms), filtering with rules only")
+                shedFiltered.set(0)
+                shedBlocked.set(0)
+            } else {
+                Log.i(TAG, "Caught up, back to full filtering")
+            }
+        }
+        return loadShedder.isShedding
+    }
+    
+    private suspend fun handleFilteredMessage(
+        sms: IncomingSms,
+        state: FilterState,
+        filteredMessage: FilteredMessage,
+        isShedding: Boolean
+    ) {
+        val filterResult = state.verdict
+        
+        // Later variants of a blocked message reuse its verdict, whoever sends them,
+        // so only verdicts on the text itself are indexed
+        filteredMessage.nearDuplicateGeneration?.let { generation ->
+            SharedNearDuplicateIndex.add(generation, filteredMessage.id, state.message, filterResult, sms.timestamp)
+        }
+        
+        Log.d(TAG, "Message classified as ${filterResult.category} (blocked: ${filterResult.isBlocked}, confidence: ${filterResult.confidence})")
+        
+        // Show notification - NotificationHelper now handles all category-specific logic.
+        // During a flood only transactions keep their own, the rest go into one summary
+        if (!isShedding || filteredMessage.category == MessageCategory.TRANSACTION) {
+            notificationHelper.showSmsNotification(filteredMessage, filterResult.matchedRule)
+        } else if (notificationHelper.shouldNotify(filteredMessage)) {
+            shedFiltered.incrementAndGet()
+            if (filterResult.isBlocked) shedBlocked.incrementAndGet()
+        }
+        
+        // Auto-delete junk if enabled and app is default SMS app; skipped during a flood
+        if (filterResult.isBlocked && !isShedding && preferencesManager.isAutoDeleteJunkEnabled()) {
+            try {
+                val deleted = smsDeleter.deleteJunkSms(sms.sender, sms.message, sms.timestamp)
+                if (deleted) {
+                    Log.i(TAG, "Auto-deleted junk SMS from system database")
+                    // Archive the deleted message
+                    smsDeleter.archiveDeletedMessage(filteredMessage)
+                }
             } catch (e: Exception) {
-                Log.e(TAG, "Error processing SMS", e)
-            } finally {
-                // Stop service after processing
-                stopSelf()
+                Log.e(TAG, "Error during auto-delete", e)
             }
         }
+        
+        // Log the blocking action for obvious junk
+        if (sms.isObviousJunk) {
+            Log.i(TAG, "Successfully blocked obvious junk message from ${sms.sender} - broadcast aborted")
+        }
     }
     
-    private fun updateFilteringStats(category: MessageCategory, isBlocked: Boolean) {
+    private fun updateFilteringStats(categoryCounts: Map<MessageCategory, Int>, blockedCount: Int) {
+        if (categoryCounts.isEmpty()) return
         serviceScope.launch {
             try {
                 // Update daily statistics
-                preferencesManager.incrementCategoryCount(category)
-                if (isBlocked) {
-                    preferencesManager.incrementBlockedCount()
-                }
+                preferencesManager.addFilteringCounts(categoryCounts, blockedCount)
             } catch (e: Exception) {
                 Log.e(TAG, "Error updating stats", e)
             }
@@ -317,7 +338,33 @@ class SmsFilterService : Service() {
     }
     
     override fun onDestroy() {
+        queue.close()
+        overflow.close()
+        serviceScope.cancel()
+        smsClassifier.release()
         super.onDestroy()
         Log.d(TAG, "SmsFilterService destroyed")
     }
+    
+    /** One SMS handed over by [SmsReceiver][com.ovehbe.junkboy.smsreceiver.SmsReceiver]. */
+    private data class IncomingSms(
+        val sender: String,
+        val message: String,
+        val timestamp: Long,
+        val isObviousJunk: Boolean,
+        /** When the service queued the message, in [SystemClock.elapsedRealtime] time. */
+        val queuedAt: Long
+    ) {
+        companion object {
+            fun fromIntent(intent: Intent): IncomingSms? {
+                return IncomingSms(
+                    sender = intent.getStringExtra("sender") ?: return null,
+                    message = intent.getStringExtra("message") ?: return null,
+                    timestamp = intent.getLongExtra("timestamp", System.currentTimeMillis()),
+                    isObviousJunk = intent.getBooleanExtra("is_obvious_junk", false),
+                    queuedAt = SystemClock.elapsedRealtime()
+                )
+            }
+        }
+    }
 } 
\ No newline at end of file
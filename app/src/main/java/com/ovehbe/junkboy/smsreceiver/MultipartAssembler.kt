@@ -0,0 +1,94 @@
+package com.ovehbe.junkboy.smsreceiver
+
+import android.telephony.SmsMessage
+
+/** One logical SMS, put back together from the parts a long message was sent in. */
+data class AssembledSms(
+    val sender: String,
+    val body: String,
+    val timestamp: Long,
+    val partCount: Int
+)
+
+/**
+ * Joins the parts of concatenated SMS so a long message is classified,
+ * stored and notified once instead of once per part.
+ *
+ * Parts are grouped by originating address and the concatenation reference
+ * from their user data header, and ordered by their sequence number. The
+ * header is only readable in 3GPP PDUs; other parts from the same address in
+ * one broadcast are joined in arrival order, which is how the platform
+ * delivers them.
+ */
+object MultipartAssembler {
+
+    private const val NO_REFERENCE = -1
+
+    // Information element ids of the concatenated SMS headers (3GPP TS 23.040 9.2.3.24)
+    private const val IEI_CONCAT_8BIT = 0x00
+    private const val IEI_CONCAT_16BIT = 0x08
+
+    private class Part(val message: SmsMessage, val sequence: Int, val arrival: Int)
+
+    fun assemble(messages: Array<SmsMessage>, format: String?): List<AssembledSms> {
+        val groups = LinkedHashMap<Pair<String, Int>, MutableList<Part>>()
+        messages.forEachIndexed { arrival, message ->
+            val sender = message.originatingAddress ?: "Unknown"
+            val header = if (format == "3gpp2") null else concatHeaderOf(message.pdu)
+            val key = sender to (header?.first ?: NO_REFERENCE)
+            groups.getOrPut(key) { mutableListOf() }
+                .add(Part(message, header?.second ?: arrival, arrival))
+        }
+
+        return groups.map { (key, parts) ->
+            parts.sortWith(compareBy({ it.sequence }, { it.arrival }))
+            AssembledSms(
+                sender = key.first,
+                body = parts.joinToString(separator = "") { it.message.messageBody ?: "" },
+                timestamp = parts.minOf { it.message.timestampMillis },
+                partCount = parts.size
+            )
+        }
+    }
+
+    /**
+     * Reference number and sequence number from the concatenation header of
+     * an SMS-DELIVER [pdu], or null if it has none.
+     */
+    private fun concatHeaderOf(pdu: ByteArray?): Pair<Int, Int>? {
+        if (pdu == null) return null
+        try {
+            // Service centre address, then the first octet of the TPDU
+            var position = (pdu[0].toInt() and 0xFF) + 1
+            val firstOctet = pdu[position++].toInt() and 0xFF
+            val isDeliver = firstOctet and 0x03 == 0
+            val hasHeader = firstOctet and 0x40 != 0
+            if (!isDeliver || !hasHeader) return null
+
+            // Originating address: digit count, type, packed digits
+            val addressDigits = pdu[position++].toInt() and 0xFF
+            position += 1 + (addressDigits + 1) / 2
+            // Protocol id, coding scheme, 7-byte timestamp, user data length
+            position += 1 + 1 + 7 + 1
+
+            val headerEnd = position + 1 + (pdu[position].toInt() and 0xFF)
+            position++
+            while (position + 1 < headerEnd) {
+                val id = pdu[position].toInt() and 0xFF
+                val length = pdu[position + 1].toInt() and 0xFF
+                val data = position + 2
+                when {
+                    id == IEI_CONCAT_8BIT && length == 3 ->
+                        return (pdu[data].toInt() and 0xFF) to (pdu[data + 2].toInt() and 0xFF)
+                    id == IEI_CONCAT_16BIT && length == 4 ->
+                        return ((pdu[data].toInt() and 0xFF) shl 8 or (pdu[data + 1].toInt() and 0xFF)) to
+                            (pdu[data + 3].toInt() and 0xFF)
+                }
+                position = data + length
+            }
+        } catch (e: IndexOutOfBoundsException) {
+            // Truncated PDU; treat it as a single part
+        }
+        return null
+    }
+}
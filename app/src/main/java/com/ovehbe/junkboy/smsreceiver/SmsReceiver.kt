@@ -6,6 +6,7 @@ import android.content.Intent
 import android.provider.Telephony
 import android.telephony.SmsMessage
 import android.util.Log
+import com.ovehbe.junkboy.filters.ObviousJunkMatcher
 import com.ovehbe.junkboy.service.SmsFilterService
 import com.ovehbe.junkboy.utils.PreferencesManager
 import kotlinx.coroutines.CoroutineScope
@@ -16,6 +17,64 @@ class SmsReceiver : BroadcastReceiver() {
     
     companion object {
         private const val TAG = "SmsReceiver"
+        
+        // Very high confidence junk indicators
+        private val obviousJunkPatterns = listOf(
+            // Turkish spam patterns
+            "tıklayınız", "tıkla ve kazan", "hediye kazan", "ödül kazan",
+            "çekiliş", "şanslısın", "seçildin", "kazandın",
+            "ücretsiz para", "para kazan", "bonus kazan",
+            
+            // English spam patterns  
+            "click to win", "you have won", "congratulations winner",
+            "claim your prize", "free money", "cash prize",
+            "urgent action required", "act now", "limited time offer",
+            
+            // Suspicious URLs with common spam domains
+            "bit.ly", "tinyurl.com", "t.co",
+            
+            // Casino/gambling terms
+            "casino", "kumar", "bahis", "slot",
+            
+            // Get rich quick schemes
+            "earn money fast", "hızlı para", "kolay kazanç"
+        )
+        
+        // Phrases specific enough to block on their own
+        private val veryObviousSpam = listOf(
+            "tıklayınız", "click to win", "you have won", "kazandın",
+            "congratulations winner", "ücretsiz para", "free money"
+        )
+        
+        // Both lists in one automaton, compiled once per process
+        private val obviousJunkMatcher = ObviousJunkMatcher.compile(
+            indicators = obviousJunkPatterns,
+            definite = veryObviousSpam
+        )
+        
+        // Filtering switch as last read from preferences; null until the first SMS of the process
+        // or the first change of the switch, whichever comes first
+        @Volatile
+        private var isFilteringEnabled: Boolean? = null
+        
+        /**
+         * Called by [PreferencesManager] when keyword or ML filtering is
+         * switched, so the next SMS is not aborted on a stale switch.
+         */
+        @JvmStatic
+        fun onFilteringSwitched(isEnabled: Boolean) {
+            isFilteringEnabled = isEnabled
+        }
+        
+        /**
+         * Quick junk detection for immediate blocking in the receiver.
+         * This catches only obvious junk to prevent notification spam:
+         * 2+ obvious spam indicators or 1 very specific spam phrase.
+         * Allocates nothing and reads no preferences, so it is safe on the
+         * main thread. More complex classification is done in the service.
+         */
+        @JvmStatic
+        fun isObviousJunk(body: CharSequence): Boolean = obviousJunkMatcher.matches(body)
     }
     
     override fun onReceive(context: Context, intent: Intent) {
@@ -26,42 +85,61 @@ class SmsReceiver : BroadcastReceiver() {
         }
         
         try {
-            // Extract SMS messages from intent
-            val messages = extractSmsMessages(intent)
-            val preferencesManager = PreferencesManager(context)
+            // Extract SMS messages from intent and join the parts of long ones
+            val messages = MultipartAssembler.assemble(
+                extractSmsMessages(intent),
+                intent.extras?.getString("format")
+            )
+            if (messages.isEmpty()) return
             
-            if (messages.isNotEmpty()) {
-                var shouldBlockBroadcast = false
-                
-                for (sms in messages) {
-                    val sender = sms.originatingAddress ?: "Unknown"
-                    val messageBody = sms.messageBody
-                    val timestamp = sms.timestampMillis
-                    
-                    Log.d(TAG, "Processing SMS from $sender: ${messageBody.take(50)}...")
+            // Decided per logical message, so one junk message does not mark the next
+            val obviousJunk = BooleanArray(messages.size) { isObviousJunk(messages[it].body) }
+            val wasEnabled = isFilteringEnabled
+            
+            // Block the broadcast to prevent other apps from receiving obvious junk
+            if (wasEnabled == true && obviousJunk.any { it }) {
+                Log.d(TAG, "Aborting SMS broadcast to prevent notification from other apps")
+                abortBroadcast()
+            }
+            
+            // Everything else runs off the main thread
+            val pendingResult = goAsync()
+            CoroutineScope(Dispatchers.IO).launch {
+                try {
+                    val preferencesManager = PreferencesManager(context)
+                    val isEnabled = preferencesManager.isKeywordFilteringEnabled() ||
+                        preferencesManager.isMlFilteringEnabled()
+                    isFilteringEnabled = isEnabled
                     
-                    // Quick junk detection for immediate blocking
-                    if (isObviousJunk(messageBody, preferencesManager)) {
-                        Log.d(TAG, "Blocking obvious junk message from $sender")
-                        shouldBlockBroadcast = true
+                    // First SMS of the process: the switch was not known on the main thread
+                    if (wasEnabled == null && isEnabled && obviousJunk.any { it }) {
+                        Log.d(TAG, "Aborting SMS broadcast to prevent notification from other apps")
+                        pendingResult.abortBroadcast()
                     }
                     
-                    // Start the filter service to process this message
-                    val serviceIntent = Intent(context, SmsFilterService::class.java).apply {
-                        putExtra("sender", sender)
-                        putExtra("message", messageBody)
-                        putExtra("timestamp", timestamp)
-                        putExtra("is_obvious_junk", shouldBlockBroadcast)
+                    messages.forEachIndexed { index, sms ->
+                        Log.d(TAG, "Processing SMS from ${sms.sender} (${sms.partCount} parts): ${sms.body.take(50)}...")
+                        
+                        val isJunk = isEnabled && obviousJunk[index]
+                        if (isJunk) {
+                            Log.d(TAG, "Blocking obvious junk message from ${sms.sender}")
+                        }
+                        
+                        // Start the filter service to process this message
+                        val serviceIntent = Intent(context, SmsFilterService::class.java).apply {
+                            putExtra("sender", sms.sender)
+                            putExtra("message", sms.body)
+                            putExtra("timestamp", sms.timestamp)
+                            putExtra("is_obvious_junk", isJunk)
+                        }
+                        
+                        // Start as foreground service for reliable processing
+                        context.startForegroundService(serviceIntent)
                     }
-                    
-                    // Start as foreground service for reliable processing
-                    context.startForegroundService(serviceIntent)
-                }
-                
-                // Block the broadcast to prevent other apps from receiving obvious junk
-                if (shouldBlockBroadcast) {
-                    Log.d(TAG, "Aborting SMS broadcast to prevent notification from other apps")
-                    abortBroadcast()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error processing SMS", e)
+                } finally {
+                    pendingResult.finish()
                 }
             }
         } catch (e: Exception) {
@@ -95,57 +173,4 @@ class SmsReceiver : BroadcastReceiver() {
         
         return messages.toTypedArray()
     }
-    
-    /**
-     * Quick junk detection for immediate blocking in the receiver.
-     * This catches only obvious junk to prevent notification spam.
-     * More complex classification is done in the service.
-     */
-    private fun isObviousJunk(messageBody: String, preferencesManager: PreferencesManager): Boolean {
-        // Only block if filtering is enabled
-        if (!preferencesManager.isKeywordFilteringEnabled() && !preferencesManager.isMlFilteringEnabled()) {
-            return false
-        }
-        
-        val lowerText = messageBody.lowercase()
-        
-        // Very high confidence junk indicators
-        val obviousJunkPatterns = listOf(
-            // Turkish spam patterns
-            "tıklayınız", "tıkla ve kazan", "hediye kazan", "ödül kazan",
-            "çekiliş", "şanslısın", "seçildin", "kazandın",
-            "ücretsiz para", "para kazan", "bonus kazan",
-            
-            // English spam patterns  
-            "click to win", "you have won", "congratulations winner",
-            "claim your prize", "free money", "cash prize",
-            "urgent action required", "act now", "limited time offer",
-            
-            // Suspicious URLs with common spam domains
-            "bit.ly", "tinyurl.com", "t.co",
-            
-            // Casino/gambling terms
-            "casino", "kumar", "bahis", "slot",
-            
-            // Get rich quick schemes
-            "earn money fast", "hızlı para", "kolay kazanç"
-        )
-        
-        // Check for multiple spam indicators (higher confidence)
-        var spamScore = 0
-        for (pattern in obviousJunkPatterns) {
-            if (lowerText.contains(pattern)) {
-                spamScore++
-            }
-        }
-        
-        // Block if message contains 2+ obvious spam indicators
-        // or 1 very specific spam phrase
-        val veryObviousSpam = listOf(
-            "tıklayınız", "click to win", "you have won", "kazandın",
-            "congratulations winner", "ücretsiz para", "free money"
-        )
-        
-        return spamScore >= 2 || veryObviousSpam.any { lowerText.contains(it) }
-    }
 } 
\ No newline at end of file
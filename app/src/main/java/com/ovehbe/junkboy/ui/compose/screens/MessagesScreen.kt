@@ -15,9 +15,14 @@ import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import android.util.Log
+import com.ovehbe.junkboy.classifier.MessageContext
 import com.ovehbe.junkboy.database.AppDatabase
 import com.ovehbe.junkboy.database.FilteredMessage
 import com.ovehbe.junkboy.database.MessageCategory
+import com.ovehbe.junkboy.filters.VerdictCache
+import com.ovehbe.junkboy.utils.SharedNearDuplicateIndex
+import com.ovehbe.junkboy.utils.SharedSenderReputation
+import com.ovehbe.junkboy.utils.SharedVerdictCache
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
@@ -150,6 +155,10 @@ fun MessagesScreen() {
                                         
                                         // Update message to mark as user override
                                         database.filteredMessageDao().applyUserOverride(message.id, false)
+                                        SharedNearDuplicateIndex.remove(message.id)
+                                        SharedVerdictCache.getInstance(context)
+                                            .remove(VerdictCache.keyOf(MessageContext.of(message.messageBody, message.sender)))
+                                        SharedSenderReputation.forget(context, message.sender)
                                         
                                         Log.d("MessagesScreen", "Added ${message.sender} to allowed senders")
                                     } catch (e: Exception) {
@@ -13,7 +13,18 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
+import com.ovehbe.junkboy.classifier.InterpreterTuning
+import com.ovehbe.junkboy.classifier.SmsClassifier
+import com.ovehbe.junkboy.filters.ClassifierCascade
+import com.ovehbe.junkboy.filters.CompiledRuleSet
+import com.ovehbe.junkboy.filters.LoadThresholds
+import com.ovehbe.junkboy.filters.NearDuplicateIndex
+import com.ovehbe.junkboy.filters.PipelineStage
+import com.ovehbe.junkboy.filters.SenderAction
+import com.ovehbe.junkboy.filters.SenderRuleTrie
+import com.ovehbe.junkboy.filters.UncertaintyBand
 import com.ovehbe.junkboy.utils.PreferencesManager
+import com.ovehbe.junkboy.utils.SharedFilterPipeline
 import com.ovehbe.junkboy.utils.SmsAppManager
 import com.ovehbe.junkboy.utils.SmsDeleter
 import com.ovehbe.junkboy.utils.CsvExporter
@@ -37,6 +48,12 @@ fun SettingsScreen() {
     var isKeywordEnabled by remember { mutableStateOf(true) }
     var isRegexEnabled by remember { mutableStateOf(true) }
     var isUnderAttackMode by remember { mutableStateOf(false) }
+    var isNearDuplicateEnabled by remember { mutableStateOf(true) }
+    var nearDuplicateDistance by remember { mutableStateOf(NearDuplicateIndex.DEFAULT_MAX_DISTANCE) }
+    var isCascadeEnabled by remember { mutableStateOf(true) }
+    var uncertaintyBand by remember { mutableStateOf(UncertaintyBand.DEFAULT) }
+    var workerIdleTimeout by remember { mutableStateOf(PreferencesManager.DEFAULT_WORKER_IDLE_TIMEOUT_SECONDS) }
+    var loadThresholds by remember { mutableStateOf(LoadThresholds.DEFAULT) }
     var notifyAllFiltered by remember { mutableStateOf(false) }
     var notifyBlockedMessages by remember { mutableStateOf(false) }
     var notifyCategorizedMessages by remember { mutableStateOf(false) }
@@ -51,16 +68,21 @@ fun SettingsScreen() {
     
     var customKeywords by remember { mutableStateOf<List<String>>(emptyList()) }
     var customRegexPatterns by remember { mutableStateOf<List<String>>(emptyList()) }
+    var allowedSenderPatterns by remember { mutableStateOf<List<String>>(emptyList()) }
+    var blockedSenderPatterns by remember { mutableStateOf<List<String>>(emptyList()) }
     var allowedSenders by remember { mutableStateOf<List<com.ovehbe.junkboy.database.AllowedSender>>(emptyList()) }
     
     var showAddKeywordDialog by remember { mutableStateOf(false) }
     var showAddRegexDialog by remember { mutableStateOf(false) }
     var showAddAllowedSenderDialog by remember { mutableStateOf(false) }
+    var addSenderPatternAction by remember { mutableStateOf<SenderAction?>(null) }
     var showClearDataDialog by remember { mutableStateOf(false) }
     var isProcessingExistingMessages by remember { mutableStateOf(false) }
     var isExporting by remember { mutableStateOf(false) }
     var processingResult by remember { mutableStateOf<String?>(null) }
     var exportResult by remember { mutableStateOf<String?>(null) }
+    var interpreterTuning by remember { mutableStateOf<InterpreterTuning?>(null) }
+    var isTuning by remember { mutableStateOf(false) }
     
     // Load preferences
     LaunchedEffect(Unit) {
@@ -68,6 +90,12 @@ fun SettingsScreen() {
         isKeywordEnabled = preferencesManager.isKeywordFilteringEnabled()
         isRegexEnabled = preferencesManager.isRegexFilteringEnabled()
         isUnderAttackMode = preferencesManager.isUnderAttackMode()
+        isNearDuplicateEnabled = preferencesManager.isNearDuplicateDetectionEnabled()
+        nearDuplicateDistance = preferencesManager.getNearDuplicateDistance()
+        isCascadeEnabled = preferencesManager.isCascadeModeEnabled()
+        uncertaintyBand = preferencesManager.getUncertaintyBand()
+        workerIdleTimeout = preferencesManager.getWorkerIdleTimeoutSeconds()
+        loadThresholds = preferencesManager.getLoadThresholds()
         notifyAllFiltered = preferencesManager.shouldNotifyAllFiltered()
         notifyBlockedMessages = preferencesManager.shouldNotifyBlockedMessages()
         notifyCategorizedMessages = preferencesManager.shouldNotifyCategorizedMessages()
@@ -82,6 +110,9 @@ fun SettingsScreen() {
         
         customKeywords = preferencesManager.getCustomKeywords()
         customRegexPatterns = preferencesManager.getCustomRegexPatterns()
+        allowedSenderPatterns = preferencesManager.getSenderPatterns(SenderAction.ALLOW)
+        blockedSenderPatterns = preferencesManager.getSenderPatterns(SenderAction.BLOCK)
+        interpreterTuning = preferencesManager.getInterpreterTuning()
         
         // Load allowed senders
         database.allowedSenderDao().getAllowedSenders().collect { senders ->
@@ -141,6 +172,90 @@ fun SettingsScreen() {
             }
         }
         
+        item {
+            // AI Performance Section
+            SettingsSection(title = "AI Performance") {
+                SettingsToggleItem(
+                    title = "Cascade Mode",
+                    description = "Only run the AI model when keyword rules are unsure",
+                    icon = Icons.Default.FilterAlt,
+                    checked = isCascadeEnabled,
+                    onCheckedChange = { 
+                        isCascadeEnabled = it
+                        preferencesManager.setCascadeModeEnabled(it)
+                    }
+                )
+                
+                if (isCascadeEnabled) {
+                    CascadeSection(
+                        band = uncertaintyBand,
+                        onBandChange = { uncertaintyBand = it },
+                        onBandChangeFinished = { preferencesManager.setUncertaintyBand(uncertaintyBand) }
+                    )
+                }
+                
+                Text(
+                    text = "Keep the filter ready for $workerIdleTimeout s after the last message",
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant,
+                    modifier = Modifier.padding(top = 8.dp)
+                )
+                Slider(
+                    value = workerIdleTimeout.toFloat(),
+                    onValueChange = { workerIdleTimeout = it.toInt() },
+                    onValueChangeFinished = {
+                        preferencesManager.setWorkerIdleTimeoutSeconds(workerIdleTimeout)
+                    },
+                    valueRange = 0f..PreferencesManager.MAX_WORKER_IDLE_TIMEOUT_SECONDS.toFloat(),
+                    steps = PreferencesManager.MAX_WORKER_IDLE_TIMEOUT_SECONDS / 15 - 1
+                )
+                
+                Text(
+                    text = "Use keyword rules only once ${loadThresholds.queueDepth} messages are waiting " +
+                        "or one has waited ${loadThresholds.latencyMillis / 1000} s",
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant,
+                    modifier = Modifier.padding(top = 8.dp)
+                )
+                Slider(
+                    value = loadThresholds.queueDepth.toFloat(),
+                    onValueChange = { loadThresholds = loadThresholds.copy(queueDepth = it.toInt()) },
+                    onValueChangeFinished = { preferencesManager.setLoadThresholds(loadThresholds) },
+                    valueRange = 8f..PreferencesManager.MAX_LOAD_SHED_QUEUE_DEPTH.toFloat(),
+                    steps = PreferencesManager.MAX_LOAD_SHED_QUEUE_DEPTH / 8 - 2
+                )
+                Slider(
+                    value = (loadThresholds.latencyMillis / 1000).toFloat(),
+                    onValueChange = { loadThresholds = loadThresholds.copy(latencyMillis = it.toLong() * 1000) },
+                    onValueChangeFinished = { preferencesManager.setLoadThresholds(loadThresholds) },
+                    valueRange = 1f..PreferencesManager.MAX_LOAD_SHED_LATENCY_SECONDS.toFloat(),
+                    steps = PreferencesManager.MAX_LOAD_SHED_LATENCY_SECONDS - 2
+                )
+                
+                Spacer(modifier = Modifier.height(8.dp))
+                
+                InterpreterTuningSection(
+                    tuning = interpreterTuning,
+                    isTuning = isTuning,
+                    onRetune = {
+                        serviceScope.launch {
+                            if (!isTuning) {
+                                isTuning = true
+                                val classifier = SmsClassifier.getInstance()
+                                try {
+                                    classifier.acquire(context).await()
+                                    classifier.retune(context)?.let { interpreterTuning = it }
+                                } finally {
+                                    classifier.release()
+                                    isTuning = false
+                                }
+                            }
+                        }
+                    }
+                )
+            }
+        }
+        
         item {
             // Attack Mode Section
             SettingsSection(title = "Protection Level") {
@@ -154,6 +269,36 @@ fun SettingsScreen() {
                         preferencesManager.setUnderAttackMode(it)
                     }
                 )
+                
+                SettingsToggleItem(
+                    title = "Near-Duplicate Detection",
+                    description = "Block close variants of recently blocked messages",
+                    icon = Icons.Default.ContentCopy,
+                    checked = isNearDuplicateEnabled,
+                    onCheckedChange = { 
+                        isNearDuplicateEnabled = it
+                        preferencesManager.setNearDuplicateDetectionEnabled(it)
+                    }
+                )
+                
+                if (isNearDuplicateEnabled) {
+                    Text(
+                        text = "Similarity tolerance: $nearDuplicateDistance of 64 bits",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant,
+                        modifier = Modifier.padding(start = 36.dp, top = 4.dp)
+                    )
+                    Slider(
+                        value = nearDuplicateDistance.toFloat(),
+                        onValueChange = { nearDuplicateDistance = it.toInt() },
+                        onValueChangeFinished = {
+                            preferencesManager.setNearDuplicateDistance(nearDuplicateDistance)
+                        },
+                        valueRange = 0f..NearDuplicateIndex.MAX_DISTANCE_LIMIT.toFloat(),
+                        steps = NearDuplicateIndex.MAX_DISTANCE_LIMIT - 1,
+                        modifier = Modifier.padding(start = 36.dp)
+                    )
+                }
             }
         }
         
@@ -428,6 +573,45 @@ fun SettingsScreen() {
             }
         }
         
+        item {
+            // Sender Rules Section
+            SettingsSection(title = "Sender Rules") {
+                Text(
+                    text = "Numbers, prefixes like 0850* and ranges like 0850 100 00 00..0850 199 99 99, checked before the message is read",
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant,
+                    modifier = Modifier.padding(bottom = 8.dp)
+                )
+                Text(
+                    text = "Always block",
+                    style = MaterialTheme.typography.titleSmall
+                )
+                CustomListSection(
+                    items = blockedSenderPatterns,
+                    emptyText = "No blocked sender patterns added",
+                    onAddClick = { addSenderPatternAction = SenderAction.BLOCK },
+                    onRemoveItem = { pattern ->
+                        preferencesManager.removeSenderPattern(pattern, SenderAction.BLOCK)
+                        blockedSenderPatterns = preferencesManager.getSenderPatterns(SenderAction.BLOCK)
+                    }
+                )
+                Spacer(modifier = Modifier.height(8.dp))
+                Text(
+                    text = "Always allow",
+                    style = MaterialTheme.typography.titleSmall
+                )
+                CustomListSection(
+                    items = allowedSenderPatterns,
+                    emptyText = "No allowed sender patterns added",
+                    onAddClick = { addSenderPatternAction = SenderAction.ALLOW },
+                    onRemoveItem = { pattern ->
+                        preferencesManager.removeSenderPattern(pattern, SenderAction.ALLOW)
+                        allowedSenderPatterns = preferencesManager.getSenderPatterns(SenderAction.ALLOW)
+                    }
+                )
+            }
+        }
+        
         item {
             // Allowed Senders Section
             SettingsSection(title = "Allowed Senders") {
@@ -604,6 +788,7 @@ fun SettingsScreen() {
         AddTextDialog(
             title = "Add Regex Pattern",
             placeholder = "Enter regex pattern",
+            validate = { pattern -> CompiledRuleSet.validatePattern(pattern) },
             onConfirm = { pattern ->
                 preferencesManager.addCustomRegexPattern(pattern)
                 customRegexPatterns = preferencesManager.getCustomRegexPatterns()
@@ -613,6 +798,22 @@ fun SettingsScreen() {
         )
     }
     
+    // Add Sender Pattern Dialog
+    addSenderPatternAction?.let { action ->
+        AddTextDialog(
+            title = if (action == SenderAction.BLOCK) "Block Senders" else "Allow Senders",
+            placeholder = "Number, prefix* or range",
+            validate = { pattern -> SenderRuleTrie.validatePattern(pattern) },
+            onConfirm = { pattern ->
+                preferencesManager.addSenderPattern(pattern, action)
+                allowedSenderPatterns = preferencesManager.getSenderPatterns(SenderAction.ALLOW)
+                blockedSenderPatterns = preferencesManager.getSenderPatterns(SenderAction.BLOCK)
+                addSenderPatternAction = null
+            },
+            onDismiss = { addSenderPatternAction = null }
+        )
+    }
+    
     // Add Allowed Sender Dialog
     if (showAddAllowedSenderDialog) {
         AddTextDialog(
@@ -654,6 +855,8 @@ fun SettingsScreen() {
                                 // Reset UI state
                                 customKeywords = emptyList()
                                 customRegexPatterns = emptyList()
+                                allowedSenderPatterns = emptyList()
+                                blockedSenderPatterns = emptyList()
                                 processingResult = "All data cleared successfully"
                                 exportResult = null
                                 
@@ -747,6 +950,165 @@ private fun SettingsToggleItem(
     }
 }
 
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+private fun CascadeSection(
+    band: UncertaintyBand,
+    onBandChange: (UncertaintyBand) -> Unit,
+    onBandChangeFinished: () -> Unit
+) {
+    val context = LocalContext.current
+    
+    // Snapshot of the counters when the screen is composed
+    val hitRates = remember { ClassifierCascade.hitRates() }
+    val total = remember { ClassifierCascade.total }
+    val stageMicros = remember {
+        val timings = SharedFilterPipeline.getInstance(context).timings
+        PipelineStage.values().associateWith { timings.averageMicros(it) }
+    }
+    
+    Column(modifier = Modifier.padding(start = 36.dp)) {
+        Text(
+            text = "Run the model for junk scores from ${(band.low * 100).toInt()}% to ${(band.high * 100).toInt()}%",
+            style = MaterialTheme.typography.bodySmall,
+            color = MaterialTheme.colorScheme.onSurfaceVariant,
+            modifier = Modifier.padding(top = 4.dp)
+        )
+        RangeSlider(
+            value = band.low..band.high,
+            onValueChange = { range -> onBandChange(UncertaintyBand(range.start, range.endInclusive)) },
+            onValueChangeFinished = onBandChangeFinished,
+            valueRange = 0f..1f,
+            steps = 19
+        )
+        
+        if (total > 0) {
+            Text(
+                text = "Messages settled by each stage since the app started:",
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(bottom = 4.dp)
+            )
+            hitRates.forEach { (tier, rate) ->
+                Row(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .padding(vertical = 2.dp)
+                ) {
+                    Text(
+                        text = tier.name.lowercase().replaceFirstChar { it.uppercase() },
+                        style = MaterialTheme.typography.bodyMedium,
+                        modifier = Modifier.weight(1f)
+                    )
+                    Text(
+                        text = String.format("%.1f%%", rate * 100),
+                        style = MaterialTheme.typography.bodyMedium,
+                        fontFamily = FontFamily.Monospace
+                    )
+                }
+            }
+            
+            Text(
+                text = "Average time per message in each pipeline stage:",
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(top = 8.dp, bottom = 4.dp)
+            )
+            stageMicros.forEach { (stage, micros) ->
+                Row(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .padding(vertical = 2.dp)
+                ) {
+                    Text(
+                        text = stage.name.lowercase().replace('_', ' ').replaceFirstChar { it.uppercase() },
+                        style = MaterialTheme.typography.bodyMedium,
+                        modifier = Modifier.weight(1f)
+                    )
+                    Text(
+                        text = String.format("%.0f µs", micros),
+                        style = MaterialTheme.typography.bodyMedium,
+                        fontFamily = FontFamily.Monospace
+                    )
+                }
+            }
+        }
+    }
+}
+
+@Composable
+private fun InterpreterTuningSection(
+    tuning: InterpreterTuning?,
+    isTuning: Boolean,
+    onRetune: () -> Unit
+) {
+    Column {
+        if (tuning == null || tuning.results.isEmpty()) {
+            Text(
+                text = "The device has not been benchmarked yet. This happens automatically the first time the AI model loads.",
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant
+            )
+        } else {
+            Text(
+                text = "Average time per message for each interpreter setting:",
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(bottom = 8.dp)
+            )
+            tuning.results.forEach { result ->
+                val isSelected = result.config == tuning.selected
+                Row(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .padding(vertical = 2.dp),
+                    verticalAlignment = Alignment.CenterVertically
+                ) {
+                    Icon(
+                        if (isSelected) Icons.Default.CheckCircle else Icons.Default.Speed,
+                        contentDescription = null,
+                        modifier = Modifier.size(16.dp),
+                        tint = if (isSelected) MaterialTheme.colorScheme.primary else MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                    Spacer(modifier = Modifier.width(8.dp))
+                    Text(
+                        text = result.config.label,
+                        style = MaterialTheme.typography.bodyMedium,
+                        fontWeight = if (isSelected) FontWeight.Bold else FontWeight.Normal,
+                        modifier = Modifier.weight(1f)
+                    )
+                    Text(
+                        text = String.format("%.2f ms", result.microsPerMessage / 1000.0),
+                        style = MaterialTheme.typography.bodyMedium,
+                        fontFamily = FontFamily.Monospace
+                    )
+                }
+            }
+        }
+        
+        Spacer(modifier = Modifier.height(8.dp))
+        
+        OutlinedButton(
+            onClick = onRetune,
+            modifier = Modifier.fillMaxWidth(),
+            enabled = !isTuning
+        ) {
+            if (isTuning) {
+                CircularProgressIndicator(
+                    modifier = Modifier.size(16.dp),
+                    strokeWidth = 2.dp
+                )
+                Spacer(modifier = Modifier.width(8.dp))
+                Text("Benchmarking...")
+            } else {
+                Icon(Icons.Default.Speed, contentDescription = null)
+                Spacer(modifier = Modifier.width(8.dp))
+                Text("Run Benchmark Again")
+            }
+        }
+    }
+}
+
 @Composable
 private fun CustomListSection(
     items: List<String>,
@@ -875,10 +1237,12 @@ private fun AllowedSendersSection(
 private fun AddTextDialog(
     title: String,
     placeholder: String,
+    validate: (String) -> String? = { null },
     onConfirm: (String) -> Unit,
     onDismiss: () -> Unit
 ) {
     var text by remember { mutableStateOf("") }
+    var error by remember { mutableStateOf<String?>(null) }
     
     AlertDialog(
         onDismissRequest = onDismiss,
@@ -886,8 +1250,15 @@ private fun AddTextDialog(
         text = {
             OutlinedTextField(
                 value = text,
-                onValueChange = { text = it },
+                onValueChange = {
+                    text = it
+                    error = null
+                },
                 placeholder = { Text(placeholder) },
+                isError = error != null,
+                supportingText = if (error != null) {
+                    { Text(error.orEmpty()) }
+                } else null,
                 modifier = Modifier.fillMaxWidth(),
                 singleLine = true
             )
@@ -896,7 +1267,10 @@ private fun AddTextDialog(
             TextButton(
                 onClick = { 
                     if (text.isNotBlank()) {
-                        onConfirm(text.trim())
+                        error = validate(text.trim())
+                        if (error == null) {
+                            onConfirm(text.trim())
+                        }
                     }
                 }
             ) {
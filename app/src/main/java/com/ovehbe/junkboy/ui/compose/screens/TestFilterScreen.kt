@@ -15,16 +15,27 @@ import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.unit.dp
 import com.ovehbe.junkboy.database.MessageCategory
 import com.ovehbe.junkboy.database.FilterType
-import com.ovehbe.junkboy.filters.CustomFilter
+import com.ovehbe.junkboy.filters.CascadeTier
+import com.ovehbe.junkboy.filters.FilterPipeline
+import com.ovehbe.junkboy.filters.FilterState
+import com.ovehbe.junkboy.filters.PipelineStage
+import com.ovehbe.junkboy.filters.StageTimings
+import com.ovehbe.junkboy.classifier.MessageContext
 import com.ovehbe.junkboy.classifier.SmsClassifier
+import com.ovehbe.junkboy.utils.PreferencesManager
+import com.ovehbe.junkboy.utils.SharedFilterPipeline
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 data class TestFilterResult(
     val category: MessageCategory,
     val confidence: Float,
     val isBlocked: Boolean,
     val filterType: FilterType,
-    val details: String
+    val details: String,
+    /** Time each pipeline stage took for this message. */
+    val stageMicros: Map<PipelineStage, Float> = emptyMap()
 )
 
 @OptIn(ExperimentalMaterial3Api::class)
@@ -38,10 +49,14 @@ fun TestFilterScreen() {
     var isProcessing by remember { mutableStateOf(false) }
     var result by remember { mutableStateOf<TestFilterResult?>(null) }
     
-    val smsClassifier = remember { 
-        val classifier = SmsClassifier.getInstance()
-        classifier.initialize(context)
-        classifier
+    val smsClassifier = remember { SmsClassifier.getInstance() }
+    val filterPipeline = remember { SharedFilterPipeline.create(context, useSignatures = false) }
+    val preferencesManager = remember { PreferencesManager(context) }
+    
+    // Keep the model loaded while this screen is shown
+    DisposableEffect(smsClassifier) {
+        smsClassifier.acquire(context)
+        onDispose { smsClassifier.release() }
     }
     
     Column(
@@ -100,7 +115,7 @@ fun TestFilterScreen() {
             onClick = {
                 coroutineScope.launch {
                     isProcessing = true
-                    result = testMessage(senderText, messageText, smsClassifier)
+                    result = testMessage(senderText, messageText, filterPipeline, preferencesManager)
                     isProcessing = false
                 }
             },
@@ -255,6 +270,17 @@ private fun TestFilterResultCard(result: TestFilterResult) {
                     color = MaterialTheme.colorScheme.onSurfaceVariant
                 )
             }
+            
+            if (result.stageMicros.isNotEmpty()) {
+                Spacer(modifier = Modifier.height(8.dp))
+                Text(
+                    text = "Stages: " + result.stageMicros.entries.joinToString { (stage, micros) ->
+                        "${stage.name.lowercase().replace('_', ' ')} ${String.format("%.0f µs", micros)}"
+                    },
+                    style = MaterialTheme.typography.bodySmall,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant
+                )
+            }
         }
     }
 }
@@ -332,28 +358,29 @@ private fun getCategoryIcon(category: MessageCategory) = when (category) {
 private suspend fun testMessage(
     sender: String,
     message: String,
-    smsClassifier: SmsClassifier
-): TestFilterResult {
-    // First try custom filter (rule-based)
-    val customResult = CustomFilter.filterMessage(message, sender)
-    if (customResult.isBlocked) {
-        return TestFilterResult(
-            category = customResult.category,
-            confidence = customResult.confidence,
-            isBlocked = true,
-            filterType = customResult.filterType,
-            details = "Blocked by custom filter: ${customResult.matchedRule ?: "unknown rule"}"
-        )
-    }
+    filterPipeline: FilterPipeline,
+    preferencesManager: PreferencesManager
+): TestFilterResult = withContext(Dispatchers.Default) {
+    // Same pipeline as incoming messages, minus the cache, so the verdict is always fresh
+    val state = FilterState(MessageContext.of(message, sender))
+    val trace = StageTimings()
+    val result = filterPipeline.process(state, preferencesManager.getPipelineSettings(), trace)
     
-    // Then try ML classifier
-    val mlResult = smsClassifier.classify(message)
+    val details = when (state.tier) {
+        CascadeTier.ALLOWLIST -> "Sender is in the allowed list"
+        CascadeTier.MODEL -> if (result.isBlocked) "Blocked by ML classifier: ${result.matchedRule ?: "unknown"}" else "Allowed by ML classifier"
+        CascadeTier.RULES -> if (result.isBlocked) "Blocked by custom filter: ${result.matchedRule ?: "unknown rule"}" else "Allowed by rules; the model was not needed"
+        else -> "No filtering method is enabled"
+    }
     
-    return TestFilterResult(
-        category = mlResult.category,
-        confidence = mlResult.confidence,
-        isBlocked = mlResult.isBlocked,
-        filterType = mlResult.filterType,
-        details = if (mlResult.isBlocked) "Blocked by ML classifier: ${mlResult.matchedRule ?: "unknown"}" else "Allowed by ML classifier"
+    TestFilterResult(
+        category = result.category,
+        confidence = result.confidence,
+        isBlocked = result.isBlocked,
+        filterType = result.filterType,
+        details = details,
+        stageMicros = PipelineStage.values()
+            .filter { trace.nanosOf(it) > 0 }
+            .associateWith { trace.nanosOf(it) / 1000f }
     )
 } 
\ No newline at end of file
@@ -5,11 +5,14 @@ import android.database.Cursor
 import android.net.Uri
 import android.provider.Telephony
 import android.util.Log
+import com.ovehbe.junkboy.classifier.MessageContext
 import com.ovehbe.junkboy.classifier.SmsClassifier
 import com.ovehbe.junkboy.database.AppDatabase
 import com.ovehbe.junkboy.database.FilteredMessage
 import com.ovehbe.junkboy.database.MessageCategory
-import com.ovehbe.junkboy.filters.CustomFilter
+import com.ovehbe.junkboy.filters.FilterResult
+import com.ovehbe.junkboy.filters.FilterState
+import com.ovehbe.junkboy.filters.LoadShedder
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.util.*
@@ -23,13 +26,14 @@ class ExistingMessagesProcessor(private val context: Context) {
     private val database = AppDatabase.getDatabase(context)
     private val preferencesManager = PreferencesManager(context)
     private val smsClassifier = SmsClassifier.getInstance()
+    private val filterPipeline = SharedFilterPipeline.create(context)
     
     suspend fun processAllExistingMessages(): Result<Int> = withContext(Dispatchers.IO) {
         try {
             Log.d(TAG, "Starting to process all existing messages")
             
             // Initialize ML classifier
-            if (!smsClassifier.initialize(context)) {
+            if (!smsClassifier.acquire(context).await()) {
                 Log.w(TAG, "ML classifier initialization failed, using rule-based filtering only")
             }
             
@@ -39,21 +43,29 @@ class ExistingMessagesProcessor(private val context: Context) {
             
             var processedCount = 0
             
-            // Process each message
-            for (smsMessage in existingMessages) {
-                try {
-                    // Process message through filtering logic
-                    val filteredMessage = processMessage(smsMessage)
-                    database.filteredMessageDao().insertMessage(filteredMessage)
-                    
-                    // Update statistics for this message
-                    updateStatistics(filteredMessage.category, filteredMessage.isBlocked)
-                    
-                    processedCount++
-                    Log.d(TAG, "Processed message from ${smsMessage.sender}: ${smsMessage.body.take(50)}")
-                    
-                } catch (e: Exception) {
-                    Log.e(TAG, "Error processing message from ${smsMessage.sender}", e)
+            // Process messages in chunks so the ML model runs once per chunk
+            for (chunk in existingMessages.chunked(SmsClassifier.MAX_BATCH_SIZE)) {
+                val states = filterChunk(chunk) ?: continue
+                
+                chunk.forEachIndexed { index, smsMessage ->
+                    try {
+                        // Process message through filtering logic
+                        val filteredMessage = if (states[index].isAllowed) {
+                            allowedMessage(smsMessage)
+                        } else {
+                            toFilteredMessage(smsMessage, states[index].verdict)
+                        }
+                        database.filteredMessageDao().insertMessage(filteredMessage)
+                        
+                        // Update statistics for this message
+                        updateStatistics(filteredMessage.category, filteredMessage.isBlocked)
+                        
+                        processedCount++
+                        Log.d(TAG, "Processed message from ${smsMessage.sender}: ${smsMessage.body.take(50)}")
+                        
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Error processing message from ${smsMessage.sender}", e)
+                    }
                 }
             }
             
@@ -63,6 +75,32 @@ class ExistingMessagesProcessor(private val context: Context) {
         } catch (e: Exception) {
             Log.e(TAG, "Error processing existing messages", e)
             Result.failure(e)
+        } finally {
+            smsClassifier.release()
+        }
+    }
+    
+    /**
+     * Runs [chunk] through the pipeline. If that fails, e.g. on a database or
+     * model error, it is filtered again with rules only; if that fails too the
+     * chunk is skipped and null returned, so one bad chunk does not end the import.
+     */
+    private suspend fun filterChunk(chunk: List<SmsMessage>): List<FilterState>? {
+        val settings = preferencesManager.getPipelineSettings()
+        try {
+            val states = chunk.map { FilterState(MessageContext.of(it.body, it.sender)) }
+            filterPipeline.process(states, settings)
+            return states
+        } catch (e: Exception) {
+            Log.e(TAG, "Error filtering ${chunk.size} messages, retrying with rules only", e)
+        }
+        return try {
+            val states = chunk.map { FilterState(MessageContext.of(it.body, it.sender)) }
+            filterPipeline.process(states, LoadShedder.degrade(settings))
+            states
+        } catch (e: Exception) {
+            Log.e(TAG, "Error filtering ${chunk.size} messages with rules only, skipping them", e)
+            null
         }
     }
     
@@ -107,117 +145,21 @@ class ExistingMessagesProcessor(private val context: Context) {
         return messages
     }
     
-    private suspend fun processMessage(smsMessage: SmsMessage): FilteredMessage {
-        // Check if sender is in allowed list
-        val isAllowed = database.allowedSenderDao().isAllowedSender(smsMessage.sender)
-        if (isAllowed) {
-            return FilteredMessage(
-                sender = smsMessage.sender,
-                messageBody = smsMessage.body,
-                receivedAt = Date(smsMessage.timestamp),
-                category = MessageCategory.GENERAL,
-                confidence = 0.0f,
-                filterType = com.ovehbe.junkboy.database.FilterType.KEYWORD_FILTER,
-                isBlocked = false,
-                isUserOverride = true,
-                isRead = false
-            )
-        }
-        
-        // Get user preferences
-        val isUnderAttackMode = preferencesManager.isUnderAttackMode()
-        val isMlEnabled = preferencesManager.isMlFilteringEnabled()
-        val isKeywordEnabled = preferencesManager.isKeywordFilteringEnabled()
-        val isRegexEnabled = preferencesManager.isRegexFilteringEnabled()
-        val customKeywords = preferencesManager.getCustomKeywords()
-        val customRegexPatterns = preferencesManager.getCustomRegexPatterns()
-        
-        // Apply filtering logic (same hierarchy as SmsFilterService)
-        val filterResult = when {
-            isMlEnabled -> {
-                // ML is enabled - use ML as primary classifier
-                val mlResult = smsClassifier.classify(smsMessage.body)
-                
-                // Also run rule-based filtering for comparison if enabled
-                val ruleResult = if (isKeywordEnabled || isRegexEnabled) {
-                    CustomFilter.filterMessage(
-                        message = smsMessage.body,
-                        sender = smsMessage.sender,
-                        isUnderAttackMode = isUnderAttackMode,
-                        customKeywords = if (isKeywordEnabled) customKeywords else emptyList(),
-                        customRegexPatterns = if (isRegexEnabled) customRegexPatterns else emptyList()
-                    )
-                } else null
-                
-                // Implement same hierarchy as SmsFilterService
-                if (ruleResult != null) {
-                    // When ML is enabled, always preserve ML_CLASSIFICATION FilterType
-                    when {
-                        // If either method wants to block, respect the blocking decision
-                        mlResult.isBlocked || ruleResult.isBlocked -> {
-                            if (mlResult.isBlocked && ruleResult.isBlocked) {
-                                // Both want to block - use higher confidence
-                                if (mlResult.confidence >= ruleResult.confidence) {
-                                    mlResult.copy(matchedRule = "ml_primary_block")
-                                } else {
-                                    mlResult.copy(
-                                        isBlocked = true,
-                                        category = ruleResult.category,
-                                        confidence = ruleResult.confidence,
-                                        matchedRule = "ml_with_rule_block"
-                                    )
-                                }
-                            } else if (mlResult.isBlocked) {
-                                mlResult.copy(matchedRule = "ml_block")
-                            } else {
-                                mlResult.copy(
-                                    isBlocked = true,
-                                    category = ruleResult.category,
-                                    confidence = ruleResult.confidence,
-                                    matchedRule = "ml_enhanced_by_rule_block"
-                                )
-                            }
-                        }
-                        
-                        // Neither wants to block - use ML result for categorization
-                        else -> {
-                            if (mlResult.confidence >= ruleResult.confidence) {
-                                mlResult.copy(matchedRule = "ml_primary")
-                            } else {
-                                mlResult.copy(
-                                    category = ruleResult.category,
-                                    confidence = ruleResult.confidence,
-                                    matchedRule = "ml_with_rule_category"
-                                )
-                            }
-                        }
-                    }
-                } else {
-                    // Only ML is enabled, use ML result
-                    mlResult
-                }
-            }
-            isKeywordEnabled || isRegexEnabled -> {
-                // ML disabled, use rule-based filtering only
-                CustomFilter.filterMessage(
-                    message = smsMessage.body,
-                    sender = smsMessage.sender,
-                    isUnderAttackMode = isUnderAttackMode,
-                    customKeywords = if (isKeywordEnabled) customKeywords else emptyList(),
-                    customRegexPatterns = if (isRegexEnabled) customRegexPatterns else emptyList()
-                )
-            }
-            else -> {
-                // No filtering enabled, neutral result
-                com.ovehbe.junkboy.filters.FilterResult(
-                    isBlocked = false,
-                    category = MessageCategory.GENERAL,
-                    filterType = com.ovehbe.junkboy.database.FilterType.KEYWORD_FILTER,
-                    confidence = 0.0f
-                )
-            }
-        }
-        
+    private fun allowedMessage(smsMessage: SmsMessage): FilteredMessage {
+        return FilteredMessage(
+            sender = smsMessage.sender,
+            messageBody = smsMessage.body,
+            receivedAt = Date(smsMessage.timestamp),
+            category = MessageCategory.GENERAL,
+            confidence = 0.0f,
+            filterType = com.ovehbe.junkboy.database.FilterType.KEYWORD_FILTER,
+            isBlocked = false,
+            isUserOverride = true,
+            isRead = false
+        )
+    }
+    
+    private fun toFilteredMessage(smsMessage: SmsMessage, filterResult: FilterResult): FilteredMessage {
         return FilteredMessage(
             sender = smsMessage.sender,
             messageBody = smsMessage.body,
@@ -38,38 +38,8 @@ class NotificationHelper(private val context: Context) {
             return
         }
         
-        // Get preferences manager to check individual category settings
-        val preferencesManager = PreferencesManager(context)
-        
-        // Check if notifications should be shown for this specific category
-        val shouldShowForCategory = when {
-            message.isBlocked -> {
-                // For blocked messages, check blocked message notification setting
-                preferencesManager.shouldNotifyBlockedMessages()
-            }
-            else -> {
-                // For categorized (non-blocked) messages, check both general and specific category settings
-                val notifyCategorizedEnabled = preferencesManager.shouldNotifyCategorizedMessages()
-                val notifyAllEnabled = preferencesManager.shouldNotifyAllFiltered()
-                
-                // If general categorized notifications are enabled, check specific category preference
-                if (notifyCategorizedEnabled) {
-                    when (message.category) {
-                        MessageCategory.GENERAL -> preferencesManager.shouldNotifyGeneral()
-                        MessageCategory.PROMOTION -> preferencesManager.shouldNotifyPromotion()
-                        MessageCategory.NOTIFICATION -> preferencesManager.shouldNotifyNotification()
-                        MessageCategory.TRANSACTION -> preferencesManager.shouldNotifyTransaction()
-                        MessageCategory.JUNK -> false // Junk should use blocked message setting instead
-                    }
-                } else {
-                    // If categorized notifications are disabled, check if "notify all" is enabled
-                    notifyAllEnabled
-                }
-            }
-        }
-        
         // Only proceed if notifications are enabled for this category
-        if (!shouldShowForCategory) {
+        if (!shouldNotify(message)) {
             return
         }
         
@@ -168,6 +138,81 @@ class NotificationHelper(private val context: Context) {
         }
     }
     
+    /** True if the user wants to be notified about [message], going by its category. */
+    fun shouldNotify(message: FilteredMessage): Boolean {
+        // Get preferences manager to check individual category settings
+        val preferencesManager = PreferencesManager(context)
+        
+        return when {
+            message.isBlocked -> {
+                // For blocked messages, check blocked message notification setting
+                preferencesManager.shouldNotifyBlockedMessages()
+            }
+            else -> {
+                // For categorized (non-blocked) messages, check both general and specific category settings
+                val notifyCategorizedEnabled = preferencesManager.shouldNotifyCategorizedMessages()
+                val notifyAllEnabled = preferencesManager.shouldNotifyAllFiltered()
+                
+                // If general categorized notifications are enabled, check specific category preference
+                if (notifyCategorizedEnabled) {
+                    when (message.category) {
+                        MessageCategory.GENERAL -> preferencesManager.shouldNotifyGeneral()
+                        MessageCategory.PROMOTION -> preferencesManager.shouldNotifyPromotion()
+                        MessageCategory.NOTIFICATION -> preferencesManager.shouldNotifyNotification()
+                        MessageCategory.TRANSACTION -> preferencesManager.shouldNotifyTransaction()
+                        MessageCategory.JUNK -> false // Junk should use blocked message setting instead
+                    }
+                } else {
+                    // If categorized notifications are disabled, check if "notify all" is enabled
+                    notifyAllEnabled
+                }
+            }
+        }
+    }
+    
+    /**
+     * One running notification for the messages filtered while the service
+     * sheds load, instead of one per message.
+     */
+    fun showHeavyTrafficNotification(totalFiltered: Int, totalBlocked: Int) {
+        if (totalFiltered == 0) return
+        
+        // Check for notification permission
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            return
+        }
+        
+        val intent = Intent(context, MainActivity::class.java).apply {
+            flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK
+            putExtra("navigate_to", "messages")
+        }
+        
+        val pendingIntent = PendingIntent.getActivity(
+            context,
+            Random.nextInt(),
+            intent,
+            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
+        )
+        
+        val notification = NotificationCompat.Builder(context, CHANNEL_ID_BLOCKED)
+            .setSmallIcon(R.drawable.ic_filter_list)
+            .setContentTitle("Heavy SMS traffic")
+            .setContentText("Filtered $totalFiltered messages, blocked $totalBlocked junk")
+            .setStyle(NotificationCompat.BigTextStyle()
+                .bigText("Junkboy is receiving a flood of messages and filters them with keyword rules only until it calms down.\n\nFiltered $totalFiltered messages, blocked $totalBlocked junk."))
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .setContentIntent(pendingIntent)
+            .setAutoCancel(true)
+            .setOnlyAlertOnce(true)
+            .build()
+        
+        with(NotificationManagerCompat.from(context)) {
+            if (areNotificationsEnabled()) {
+                notify(9998, notification) // Fixed ID so the summary updates in place
+            }
+        }
+    }
+    
     fun showDailyStatsNotification(
         totalFiltered: Int,
         totalBlocked: Int,
@@ -2,8 +2,20 @@ package com.ovehbe.junkboy.utils
 
 import android.content.Context
 import android.content.SharedPreferences
+import com.ovehbe.junkboy.classifier.InterpreterTuning
 import com.ovehbe.junkboy.database.MessageCategory
+import com.ovehbe.junkboy.filters.CompiledRuleSet
+import com.ovehbe.junkboy.filters.FilterRules
+import com.ovehbe.junkboy.filters.LoadThresholds
+import com.ovehbe.junkboy.filters.NearDuplicateIndex
+import com.ovehbe.junkboy.filters.PipelineSettings
+import com.ovehbe.junkboy.filters.SenderAction
+import com.ovehbe.junkboy.filters.SenderRule
+import com.ovehbe.junkboy.filters.SenderRuleTrie
+import com.ovehbe.junkboy.filters.UncertaintyBand
+import com.ovehbe.junkboy.smsreceiver.SmsReceiver
 import com.google.gson.Gson
+import com.google.gson.JsonSyntaxException
 import com.google.gson.reflect.TypeToken
 
 class PreferencesManager(context: Context) {
@@ -20,6 +32,14 @@ class PreferencesManager(context: Context) {
         private const val KEY_NOTIFY_BLOCKED_MESSAGES = "notify_blocked_messages"
         private const val KEY_NOTIFY_CATEGORIZED_MESSAGES = "notify_categorized_messages"
         private const val KEY_AUTO_DELETE_JUNK = "auto_delete_junk"
+        private const val KEY_NEAR_DUPLICATE_DETECTION = "near_duplicate_detection"
+        private const val KEY_NEAR_DUPLICATE_DISTANCE = "near_duplicate_distance"
+        private const val KEY_CASCADE_MODE = "cascade_mode"
+        private const val KEY_CASCADE_BAND_LOW = "cascade_band_low"
+        private const val KEY_CASCADE_BAND_HIGH = "cascade_band_high"
+        private const val KEY_WORKER_IDLE_TIMEOUT = "worker_idle_timeout"
+        private const val KEY_LOAD_SHED_QUEUE_DEPTH = "load_shed_queue_depth"
+        private const val KEY_LOAD_SHED_LATENCY = "load_shed_latency"
         
         // Individual category notification preferences
         private const val KEY_NOTIFY_GENERAL = "notify_general"
@@ -30,6 +50,8 @@ class PreferencesManager(context: Context) {
         // Custom filters
         private const val KEY_CUSTOM_KEYWORDS = "custom_keywords"
         private const val KEY_CUSTOM_REGEX_PATTERNS = "custom_regex_patterns"
+        private const val KEY_ALLOWED_SENDER_PATTERNS = "allowed_sender_patterns"
+        private const val KEY_BLOCKED_SENDER_PATTERNS = "blocked_sender_patterns"
         
         // Statistics
         private const val KEY_TOTAL_MESSAGES_FILTERED = "total_messages_filtered"
@@ -42,9 +64,23 @@ class PreferencesManager(context: Context) {
         private const val KEY_DAILY_JUNK_COUNT = "daily_junk_count"
         private const val KEY_DAILY_BLOCKED_COUNT = "daily_blocked_count"
         
+        // ML interpreter
+        private const val KEY_INTERPRETER_TUNING = "interpreter_tuning"
+        
+        // Sender reputation
+        private const val KEY_SENDER_REPUTATION_GENERATION = "sender_reputation_generation"
+        
         // First run
         private const val KEY_FIRST_RUN = "first_run"
         private const val KEY_PERMISSIONS_GRANTED = "permissions_granted"
+        
+        const val DEFAULT_WORKER_IDLE_TIMEOUT_SECONDS = 30
+        const val MAX_WORKER_IDLE_TIMEOUT_SECONDS = 300
+        const val MAX_LOAD_SHED_QUEUE_DEPTH = 128
+        const val MAX_LOAD_SHED_LATENCY_SECONDS = 30
+        
+        // Instances are made per caller, so the statistics' read-modify-writes lock on this
+        private val STATS_LOCK = Any()
     }
     
     private val prefs: SharedPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
@@ -52,16 +88,29 @@ class PreferencesManager(context: Context) {
     
     // Feature toggles
     fun isUnderAttackMode(): Boolean = prefs.getBoolean(KEY_UNDER_ATTACK_MODE, false)
-    fun setUnderAttackMode(enabled: Boolean) = prefs.edit().putBoolean(KEY_UNDER_ATTACK_MODE, enabled).apply()
+    fun setUnderAttackMode(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_UNDER_ATTACK_MODE, enabled).apply()
+        rebuildFilterRules()
+    }
     
     fun isMlFilteringEnabled(): Boolean = prefs.getBoolean(KEY_ML_FILTERING_ENABLED, true)
-    fun setMlFilteringEnabled(enabled: Boolean) = prefs.edit().putBoolean(KEY_ML_FILTERING_ENABLED, enabled).apply()
+    fun setMlFilteringEnabled(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_ML_FILTERING_ENABLED, enabled).apply()
+        SmsReceiver.onFilteringSwitched(isKeywordFilteringEnabled() || enabled)
+    }
     
     fun isKeywordFilteringEnabled(): Boolean = prefs.getBoolean(KEY_KEYWORD_FILTERING_ENABLED, true)
-    fun setKeywordFilteringEnabled(enabled: Boolean) = prefs.edit().putBoolean(KEY_KEYWORD_FILTERING_ENABLED, enabled).apply()
+    fun setKeywordFilteringEnabled(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_KEYWORD_FILTERING_ENABLED, enabled).apply()
+        SmsReceiver.onFilteringSwitched(enabled || isMlFilteringEnabled())
+        rebuildFilterRules()
+    }
     
     fun isRegexFilteringEnabled(): Boolean = prefs.getBoolean(KEY_REGEX_FILTERING_ENABLED, true)
-    fun setRegexFilteringEnabled(enabled: Boolean) = prefs.edit().putBoolean(KEY_REGEX_FILTERING_ENABLED, enabled).apply()
+    fun setRegexFilteringEnabled(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_REGEX_FILTERING_ENABLED, enabled).apply()
+        rebuildFilterRules()
+    }
     
     fun shouldNotifyAllFiltered(): Boolean = prefs.getBoolean(KEY_NOTIFY_ALL_FILTERED, false)
     fun setNotifyAllFiltered(enabled: Boolean) = prefs.edit().putBoolean(KEY_NOTIFY_ALL_FILTERED, enabled).apply()
@@ -88,6 +137,60 @@ class PreferencesManager(context: Context) {
     fun isAutoDeleteJunkEnabled(): Boolean = prefs.getBoolean(KEY_AUTO_DELETE_JUNK, false)
     fun setAutoDeleteJunk(enabled: Boolean) = prefs.edit().putBoolean(KEY_AUTO_DELETE_JUNK, enabled).apply()
     
+    fun isNearDuplicateDetectionEnabled(): Boolean = prefs.getBoolean(KEY_NEAR_DUPLICATE_DETECTION, true)
+    fun setNearDuplicateDetectionEnabled(enabled: Boolean) = prefs.edit().putBoolean(KEY_NEAR_DUPLICATE_DETECTION, enabled).apply()
+    
+    /** Largest SimHash bit distance at which a message counts as a variant of a blocked one. */
+    fun getNearDuplicateDistance(): Int =
+        prefs.getInt(KEY_NEAR_DUPLICATE_DISTANCE, NearDuplicateIndex.DEFAULT_MAX_DISTANCE)
+    fun setNearDuplicateDistance(distance: Int) = prefs.edit()
+        .putInt(KEY_NEAR_DUPLICATE_DISTANCE, distance.coerceIn(0, NearDuplicateIndex.MAX_DISTANCE_LIMIT))
+        .apply()
+    
+    fun isCascadeModeEnabled(): Boolean = prefs.getBoolean(KEY_CASCADE_MODE, true)
+    fun setCascadeModeEnabled(enabled: Boolean) = prefs.edit().putBoolean(KEY_CASCADE_MODE, enabled).apply()
+    
+    /** Rule junk scores for which the model still runs in cascade mode. */
+    fun getUncertaintyBand(): UncertaintyBand {
+        val low = prefs.getFloat(KEY_CASCADE_BAND_LOW, UncertaintyBand.DEFAULT.low)
+        val high = prefs.getFloat(KEY_CASCADE_BAND_HIGH, UncertaintyBand.DEFAULT.high)
+        return if (low in 0f..1f && high in 0f..1f && low <= high) UncertaintyBand(low, high) else UncertaintyBand.DEFAULT
+    }
+    fun setUncertaintyBand(band: UncertaintyBand) = prefs.edit()
+        .putFloat(KEY_CASCADE_BAND_LOW, band.low)
+        .putFloat(KEY_CASCADE_BAND_HIGH, band.high)
+        .apply()
+    
+    /** The band the classifiers should use, or null when cascade mode is off. */
+    fun getCascadeBand(): UncertaintyBand? = if (isCascadeModeEnabled()) getUncertaintyBand() else null
+    
+    /** Seconds the filter service stays running after the last message of a burst. */
+    fun getWorkerIdleTimeoutSeconds(): Int = prefs.getInt(KEY_WORKER_IDLE_TIMEOUT, DEFAULT_WORKER_IDLE_TIMEOUT_SECONDS)
+    fun setWorkerIdleTimeoutSeconds(seconds: Int) = prefs.edit()
+        .putInt(KEY_WORKER_IDLE_TIMEOUT, seconds.coerceIn(0, MAX_WORKER_IDLE_TIMEOUT_SECONDS))
+        .apply()
+    fun getWorkerIdleTimeoutMillis(): Long = getWorkerIdleTimeoutSeconds() * 1000L
+    
+    /** Queue depth and waiting time at which the filter service drops to rules only. */
+    fun getLoadThresholds(): LoadThresholds {
+        val queueDepth = prefs.getInt(KEY_LOAD_SHED_QUEUE_DEPTH, LoadThresholds.DEFAULT.queueDepth)
+        val latencyMillis = prefs.getLong(KEY_LOAD_SHED_LATENCY, LoadThresholds.DEFAULT.latencyMillis)
+        return if (queueDepth > 0 && latencyMillis > 0) LoadThresholds(queueDepth, latencyMillis) else LoadThresholds.DEFAULT
+    }
+    fun setLoadThresholds(thresholds: LoadThresholds) = prefs.edit()
+        .putInt(KEY_LOAD_SHED_QUEUE_DEPTH, thresholds.queueDepth.coerceAtMost(MAX_LOAD_SHED_QUEUE_DEPTH))
+        .putLong(KEY_LOAD_SHED_LATENCY, thresholds.latencyMillis.coerceAtMost(MAX_LOAD_SHED_LATENCY_SECONDS * 1000L))
+        .apply()
+    
+    /** Everything the filter pipeline needs, read at once. */
+    fun getPipelineSettings(): PipelineSettings = PipelineSettings(
+        rules = getFilterRules(),
+        isRuleFilteringEnabled = isKeywordFilteringEnabled() || isRegexFilteringEnabled(),
+        isMlEnabled = isMlFilteringEnabled(),
+        cascadeBand = getCascadeBand(),
+        nearDuplicateDistance = if (isNearDuplicateDetectionEnabled()) getNearDuplicateDistance() else null
+    )
+    
     // Custom filters
     fun getCustomKeywords(): List<String> {
         val json = prefs.getString(KEY_CUSTOM_KEYWORDS, "[]")
@@ -98,6 +201,7 @@ class PreferencesManager(context: Context) {
     fun setCustomKeywords(keywords: List<String>) {
         val json = gson.toJson(keywords)
         prefs.edit().putString(KEY_CUSTOM_KEYWORDS, json).apply()
+        rebuildFilterRules()
     }
     
     fun addCustomKeyword(keyword: String) {
@@ -120,17 +224,30 @@ class PreferencesManager(context: Context) {
         return gson.fromJson(json, type) ?: emptyList()
     }
     
+    /**
+     * Saves the patterns that compile; invalid ones are rejected here so the
+     * filter never sees them.
+     */
     fun setCustomRegexPatterns(patterns: List<String>) {
-        val json = gson.toJson(patterns)
+        val valid = patterns.filter { CompiledRuleSet.validatePattern(it) == null }
+        val json = gson.toJson(valid)
         prefs.edit().putString(KEY_CUSTOM_REGEX_PATTERNS, json).apply()
+        rebuildFilterRules()
     }
     
-    fun addCustomRegexPattern(pattern: String) {
+    /**
+     * Returns false if the pattern is not a valid regex and was not saved.
+     */
+    fun addCustomRegexPattern(pattern: String): Boolean {
+        if (CompiledRuleSet.validatePattern(pattern.trim()) != null) {
+            return false
+        }
         val current = getCustomRegexPatterns().toMutableList()
-        if (!current.contains(pattern.trim()) && pattern.trim().isNotEmpty()) {
+        if (!current.contains(pattern.trim())) {
             current.add(pattern.trim())
             setCustomRegexPatterns(current)
         }
+        return true
     }
     
     fun removeCustomRegexPattern(pattern: String) {
@@ -139,21 +256,92 @@ class PreferencesManager(context: Context) {
         setCustomRegexPatterns(current)
     }
     
+    /** Sender numbers, prefixes and ranges that are always allowed or always blocked. */
+    fun getSenderPatterns(action: SenderAction): List<String> {
+        val json = prefs.getString(senderPatternsKey(action), "[]")
+        val type = object : TypeToken<List<String>>() {}.type
+        return gson.fromJson(json, type) ?: emptyList()
+    }
+    
+    fun getSenderRules(): List<SenderRule> = SenderAction.values().flatMap { action ->
+        getSenderPatterns(action).map { SenderRule(it, action) }
+    }
+    
+    /**
+     * Returns false if the pattern is not a valid sender pattern and was not saved.
+     */
+    fun addSenderPattern(pattern: String, action: SenderAction): Boolean {
+        if (SenderRuleTrie.validatePattern(pattern.trim()) != null) {
+            return false
+        }
+        val current = getSenderPatterns(action).toMutableList()
+        if (!current.contains(pattern.trim())) {
+            current.add(pattern.trim())
+            setSenderPatterns(current, action)
+        }
+        return true
+    }
+    
+    fun removeSenderPattern(pattern: String, action: SenderAction) {
+        val current = getSenderPatterns(action).toMutableList()
+        current.remove(pattern)
+        setSenderPatterns(current, action)
+    }
+    
+    private fun setSenderPatterns(patterns: List<String>, action: SenderAction) {
+        prefs.edit().putString(senderPatternsKey(action), gson.toJson(patterns)).apply()
+        rebuildFilterRules()
+    }
+    
+    private fun senderPatternsKey(action: SenderAction): String = when (action) {
+        SenderAction.ALLOW -> KEY_ALLOWED_SENDER_PATTERNS
+        SenderAction.BLOCK -> KEY_BLOCKED_SENDER_PATTERNS
+    }
+    
+    /**
+     * The compiled rule snapshot for the current settings. Built on first use
+     * in this process and rebuilt whenever a rule setting changes.
+     */
+    fun getFilterRules(): CompiledRuleSet = FilterRules.current() ?: rebuildFilterRules()
+    
+    private fun rebuildFilterRules(): CompiledRuleSet = synchronized(FilterRules) {
+        val rules = CompiledRuleSet.compile(
+            isUnderAttackMode = isUnderAttackMode(),
+            customKeywords = if (isKeywordFilteringEnabled()) getCustomKeywords() else emptyList(),
+            customRegexPatterns = if (isRegexFilteringEnabled()) getCustomRegexPatterns() else emptyList(),
+            senderRules = getSenderRules()
+        )
+        FilterRules.publish(rules)
+        rules
+    }
+    
+    // ML interpreter
+    fun getInterpreterTuning(): InterpreterTuning? {
+        val json = prefs.getString(KEY_INTERPRETER_TUNING, null) ?: return null
+        return try {
+            gson.fromJson(json, InterpreterTuning::class.java)
+        } catch (e: JsonSyntaxException) {
+            null
+        }
+    }
+    
+    fun setInterpreterTuning(tuning: InterpreterTuning) {
+        prefs.edit().putString(KEY_INTERPRETER_TUNING, gson.toJson(tuning)).apply()
+    }
+    
+    // Sender reputation: generation of the rules and model the saved histories were judged by
+    fun getSenderReputationGeneration(): Long = prefs.getLong(KEY_SENDER_REPUTATION_GENERATION, 0L)
+    fun setSenderReputationGeneration(generation: Long) =
+        prefs.edit().putLong(KEY_SENDER_REPUTATION_GENERATION, generation).apply()
+    
     // Statistics
     fun getTotalMessagesFiltered(): Long = prefs.getLong(KEY_TOTAL_MESSAGES_FILTERED, 0)
     fun getTotalMessagesBlocked(): Long = prefs.getLong(KEY_TOTAL_MESSAGES_BLOCKED, 0)
     
-    fun incrementCategoryCount(category: MessageCategory) {
+    fun incrementCategoryCount(category: MessageCategory) = synchronized(STATS_LOCK) {
         checkDailyStatsReset()
         
-        val key = when (category) {
-            MessageCategory.GENERAL -> KEY_DAILY_GENERAL_COUNT
-            MessageCategory.PROMOTION -> KEY_DAILY_PROMOTION_COUNT
-            MessageCategory.NOTIFICATION -> KEY_DAILY_NOTIFICATION_COUNT
-            MessageCategory.TRANSACTION -> KEY_DAILY_TRANSACTION_COUNT
-            MessageCategory.JUNK -> KEY_DAILY_JUNK_COUNT
-        }
-        
+        val key = dailyCountKey(category)
         val current = prefs.getInt(key, 0)
         prefs.edit()
             .putInt(key, current + 1)
@@ -161,7 +349,7 @@ class PreferencesManager(context: Context) {
             .apply()
     }
     
-    fun incrementBlockedCount() {
+    fun incrementBlockedCount() = synchronized(STATS_LOCK) {
         checkDailyStatsReset()
         
         val current = prefs.getInt(KEY_DAILY_BLOCKED_COUNT, 0)
@@ -171,18 +359,38 @@ class PreferencesManager(context: Context) {
             .apply()
     }
     
-    fun getDailyCategoryCount(category: MessageCategory): Int {
+    /** Adds the counts of a whole batch of messages in a single write. */
+    fun addFilteringCounts(categoryCounts: Map<MessageCategory, Int>, blockedCount: Int) = synchronized(STATS_LOCK) {
         checkDailyStatsReset()
         
-        val key = when (category) {
+        val editor = prefs.edit()
+        var total = 0
+        for ((category, count) in categoryCounts) {
+            val key = dailyCountKey(category)
+            editor.putInt(key, prefs.getInt(key, 0) + count)
+            total += count
+        }
+        editor.putLong(KEY_TOTAL_MESSAGES_FILTERED, getTotalMessagesFiltered() + total)
+        if (blockedCount > 0) {
+            editor.putInt(KEY_DAILY_BLOCKED_COUNT, prefs.getInt(KEY_DAILY_BLOCKED_COUNT, 0) + blockedCount)
+            editor.putLong(KEY_TOTAL_MESSAGES_BLOCKED, getTotalMessagesBlocked() + blockedCount)
+        }
+        editor.apply()
+    }
+    
+    fun getDailyCategoryCount(category: MessageCategory): Int {
+        checkDailyStatsReset()
+        return prefs.getInt(dailyCountKey(category), 0)
+    }
+    
+    private fun dailyCountKey(category: MessageCategory): String {
+        return when (category) {
             MessageCategory.GENERAL -> KEY_DAILY_GENERAL_COUNT
             MessageCategory.PROMOTION -> KEY_DAILY_PROMOTION_COUNT
             MessageCategory.NOTIFICATION -> KEY_DAILY_NOTIFICATION_COUNT
             MessageCategory.TRANSACTION -> KEY_DAILY_TRANSACTION_COUNT
             MessageCategory.JUNK -> KEY_DAILY_JUNK_COUNT
         }
-        
-        return prefs.getInt(key, 0)
     }
     
     fun getDailyBlockedCount(): Int {
@@ -190,7 +398,7 @@ class PreferencesManager(context: Context) {
         return prefs.getInt(KEY_DAILY_BLOCKED_COUNT, 0)
     }
     
-    private fun checkDailyStatsReset() {
+    private fun checkDailyStatsReset() = synchronized(STATS_LOCK) {
         val today = System.currentTimeMillis() / (1000 * 60 * 60 * 24) // Days since epoch
         val lastStatsDate = prefs.getLong(KEY_DAILY_STATS_DATE, 0)
         
@@ -218,5 +426,6 @@ class PreferencesManager(context: Context) {
     // Reset all data
     fun clearAllData() {
         prefs.edit().clear().apply()
+        rebuildFilterRules()
     }
 } 
\ No newline at end of file
@@ -0,0 +1,57 @@
+package com.ovehbe.junkboy.utils
+
+import android.content.Context
+import android.util.Log
+import com.ovehbe.junkboy.database.AppDatabase
+import com.ovehbe.junkboy.filters.AllowlistIndex
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+
+/**
+ * The process-wide [AllowlistIndex], kept in sync with the allowed senders
+ * table by collecting its Flow for as long as the process lives. Only the
+ * first call waits for the table to be read; after that every check is in
+ * memory.
+ */
+object SharedAllowlist {
+
+    private const val TAG = "SharedAllowlist"
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val index = AllowlistIndex()
+    private val loaded = CompletableDeferred<Unit>()
+
+    @Volatile
+    private var isCollecting = false
+
+    suspend fun getInstance(context: Context): AllowlistIndex {
+        if (!loaded.isCompleted) {
+            startCollecting(context.applicationContext)
+            loaded.await()
+        }
+        return index
+    }
+
+    private fun startCollecting(context: Context) {
+        synchronized(this) {
+            if (isCollecting) return
+            isCollecting = true
+        }
+        scope.launch {
+            try {
+                AppDatabase.getDatabase(context).allowedSenderDao().getAllowedSenders().collect { senders ->
+                    index.replaceAll(senders.map { it.phoneNumber })
+                    loaded.complete(Unit)
+                    Log.d(TAG, "Allowlist updated with ${index.size} senders")
+                }
+            } catch (e: Exception) {
+                // Filter everything rather than let the filter wait forever
+                Log.e(TAG, "Error reading allowed senders", e)
+                loaded.complete(Unit)
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ovehbe.junkboy.utils
+
+import android.content.Context
+import com.ovehbe.junkboy.classifier.SmsClassifier
+import com.ovehbe.junkboy.filters.AllowlistStage
+import com.ovehbe.junkboy.filters.FilterPipeline
+import com.ovehbe.junkboy.filters.FilterStage
+import com.ovehbe.junkboy.filters.ModelStage
+import com.ovehbe.junkboy.filters.PipelineSettings
+import com.ovehbe.junkboy.filters.ReceiverHintStage
+import com.ovehbe.junkboy.filters.ReputationStage
+import com.ovehbe.junkboy.filters.RuleStage
+import com.ovehbe.junkboy.filters.SenderRuleStage
+import com.ovehbe.junkboy.filters.SignatureStage
+
+/**
+ * Builds the [FilterPipeline] with the app's stages. The live pipeline is
+ * shared process-wide so its stage timings can be shown in the settings.
+ */
+object SharedFilterPipeline {
+
+    @Volatile
+    private var INSTANCE: FilterPipeline? = null
+
+    /** The pipeline for incoming messages; counts cascade tiers. */
+    fun getInstance(context: Context): FilterPipeline {
+        return INSTANCE ?: synchronized(this) {
+            INSTANCE ?: create(context, recordsTiers = true).also { INSTANCE = it }
+        }
+    }
+
+    /**
+     * A separate pipeline, e.g. for the inbox import. Without [useSignatures]
+     * verdicts are neither taken from nor written to the verdict cache, the
+     * near-duplicate index and the sender reputation, so the test screen
+     * always shows a fresh one.
+     */
+    fun create(context: Context, recordsTiers: Boolean = false, useSignatures: Boolean = true): FilterPipeline {
+        val appContext = context.applicationContext
+        val smsClassifier = SmsClassifier.getInstance()
+
+        val stages = mutableListOf<FilterStage>()
+        stages.add(AllowlistStage { sender -> SharedAllowlist.getInstance(appContext).contains(sender) })
+        stages.add(SenderRuleStage)
+        stages.add(ReceiverHintStage)
+        if (useSignatures) {
+            // Wait for the model so verdicts are remembered under the model that made them
+            val modelVersion: suspend (PipelineSettings) -> String? = { settings ->
+                if (settings.isMlEnabled) smsClassifier.awaitReady()
+                smsClassifier.modelVersion
+            }
+            stages.add(
+                SignatureStage(
+                    cache = SharedVerdictCache.getInstance(appContext),
+                    nearDuplicates = { generation -> SharedNearDuplicateIndex.getInstance(appContext, generation) },
+                    modelVersion = modelVersion
+                )
+            )
+            stages.add(
+                ReputationStage(
+                    reputation = { SharedSenderReputation.getInstance(appContext) },
+                    modelVersion = modelVersion,
+                    persist = { histories -> SharedSenderReputation.save(appContext, histories) },
+                    reset = { generation -> SharedSenderReputation.reset(appContext, generation) }
+                )
+            )
+        }
+        stages.add(RuleStage)
+        stages.add(ModelStage(smsClassifier))
+        return FilterPipeline(stages, recordsTiers)
+    }
+}
@@ -0,0 +1,75 @@
+package com.ovehbe.junkboy.utils
+
+import android.content.Context
+import android.util.Log
+import com.ovehbe.junkboy.classifier.MessageContext
+import com.ovehbe.junkboy.database.AppDatabase
+import com.ovehbe.junkboy.filters.FilterResult
+import com.ovehbe.junkboy.filters.NearDuplicateIndex
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.Date
+
+/**
+ * The process-wide [NearDuplicateIndex] of the current verdict generation.
+ * Rebuilt from the recently blocked messages saved under that generation the
+ * first time it is used in a process and whenever the generation changes, so
+ * blocks judged by other rules or another model never answer their variants.
+ */
+object SharedNearDuplicateIndex {
+
+    private const val TAG = "SharedNearDuplicateIndex"
+
+    private class GenerationIndex(val generation: Long, val index: NearDuplicateIndex)
+
+    private val mutex = Mutex()
+
+    @Volatile
+    private var INSTANCE: GenerationIndex? = null
+
+    suspend fun getInstance(context: Context, generation: Long): NearDuplicateIndex {
+        INSTANCE?.let { if (it.generation == generation) return it.index }
+        return mutex.withLock {
+            INSTANCE?.takeIf { it.generation == generation }?.index
+                ?: rebuild(context, generation).also { INSTANCE = GenerationIndex(generation, it) }
+        }
+    }
+
+    /**
+     * Adds a block judged under [generation]. Skipped if the index belongs to
+     * another generation or is not built yet; the rebuild reads it from the
+     * database then.
+     */
+    fun add(generation: Long, messageId: Long, message: MessageContext, verdict: FilterResult, timestamp: Long) {
+        val current = INSTANCE ?: return
+        if (current.generation == generation) current.index.add(messageId, message, verdict, timestamp)
+    }
+
+    /** Forgets a message, e.g. after the user marked it as not junk. */
+    fun remove(messageId: Long) {
+        INSTANCE?.index?.remove(messageId)
+    }
+
+    private suspend fun rebuild(context: Context, generation: Long): NearDuplicateIndex {
+        val index = NearDuplicateIndex()
+        try {
+            val since = Date(System.currentTimeMillis() - NearDuplicateIndex.DEFAULT_MAX_AGE_MILLIS)
+            val blocked = AppDatabase.getDatabase(context).filteredMessageDao()
+                .getRecentNearDuplicateSources(generation, since, NearDuplicateIndex.DEFAULT_MAX_ENTRIES)
+            // Oldest first, so the newest messages are the last to be evicted
+            for (message in blocked.asReversed()) {
+                val verdict = FilterResult(
+                    isBlocked = true,
+                    category = message.category,
+                    filterType = message.filterType,
+                    confidence = message.confidence
+                )
+                index.add(message.id, MessageContext.of(message.messageBody, message.sender), verdict, message.receivedAt.time)
+            }
+            Log.d(TAG, "Rebuilt near-duplicate index with ${index.size} blocked messages")
+        } catch (e: Exception) {
+            Log.e(TAG, "Error rebuilding near-duplicate index", e)
+        }
+        return index
+    }
+}
@@ -0,0 +1,75 @@
+package com.ovehbe.junkboy.utils
+
+import android.content.Context
+import android.util.Log
+import com.ovehbe.junkboy.database.AppDatabase
+import com.ovehbe.junkboy.database.SenderReputationEntry
+import com.ovehbe.junkboy.filters.SenderHistory
+import com.ovehbe.junkboy.filters.SenderNormalizer
+import com.ovehbe.junkboy.filters.SenderReputation
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * The process-wide [SenderReputation], backed by the sender reputation
+ * table. Loaded from the database the first time it is used in a process.
+ */
+object SharedSenderReputation {
+
+    private const val TAG = "SharedSenderReputation"
+
+    private val mutex = Mutex()
+
+    @Volatile
+    private var INSTANCE: SenderReputation? = null
+
+    suspend fun getInstance(context: Context): SenderReputation {
+        INSTANCE?.let { return it }
+        return mutex.withLock {
+            INSTANCE ?: load(context).also { INSTANCE = it }
+        }
+    }
+
+    suspend fun save(context: Context, histories: List<SenderHistory>) {
+        try {
+            AppDatabase.getDatabase(context).senderReputationDao()
+                .insertEntries(histories.map { SenderReputationEntry.of(it) })
+        } catch (e: Exception) {
+            Log.e(TAG, "Error saving sender reputation", e)
+        }
+    }
+
+    /** Drops every saved history once the rules or the model changed, see [SenderReputation.ensureGeneration]. */
+    suspend fun reset(context: Context, generation: Long) {
+        try {
+            AppDatabase.getDatabase(context).senderReputationDao().deleteAllEntries()
+            PreferencesManager(context).setSenderReputationGeneration(generation)
+            Log.d(TAG, "Rules or model changed, sender reputation reset")
+        } catch (e: Exception) {
+            Log.e(TAG, "Error resetting sender reputation", e)
+        }
+    }
+
+    /** Drops [sender]'s history, however it is spelled, after the user overrode one of its verdicts. */
+    suspend fun forget(context: Context, sender: String) {
+        getInstance(context).forget(sender)
+        AppDatabase.getDatabase(context).senderReputationDao().deleteEntry(SenderNormalizer.DEFAULT.normalize(sender))
+    }
+
+    private suspend fun load(context: Context): SenderReputation {
+        val reputation = SenderReputation()
+        reputation.generation = PreferencesManager(context).getSenderReputationGeneration()
+        try {
+            val entries = AppDatabase.getDatabase(context).senderReputationDao()
+                .getRecentEntries(SenderReputation.DEFAULT_MAX_SENDERS)
+            // Oldest first, so the most recently seen senders are the last to be evicted
+            for (entry in entries.asReversed()) {
+                reputation.load(entry.toHistory())
+            }
+            Log.d(TAG, "Loaded reputation of ${reputation.size} senders")
+        } catch (e: Exception) {
+            Log.e(TAG, "Error loading sender reputation", e)
+        }
+        return reputation
+    }
+}
@@ -0,0 +1,25 @@
+package com.ovehbe.junkboy.utils
+
+import android.content.Context
+import com.ovehbe.junkboy.filters.VerdictCache
+import java.io.File
+
+/**
+ * The process-wide [VerdictCache], with its disk tier in the app's cache
+ * directory so verdicts survive service restarts.
+ */
+object SharedVerdictCache {
+
+    private const val CACHE_FILE = "verdict_cache.bin"
+
+    @Volatile
+    private var INSTANCE: VerdictCache? = null
+
+    fun getInstance(context: Context): VerdictCache {
+        return INSTANCE ?: synchronized(this) {
+            INSTANCE ?: VerdictCache(
+                file = File(context.applicationContext.cacheDir, CACHE_FILE)
+            ).also { INSTANCE = it }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.ovehbe.junkboy.benchmark
+
+/**
+ * Fixed message sets used by the benchmarks. Keep these stable so numbers
+ * stay comparable between releases; add a new corpus instead of editing one.
+ */
+object Corpora {
+
+    const val SHORT_TR = "SHORT_TR"
+    const val SHORT_EN = "SHORT_EN"
+    const val LONG_TR = "LONG_TR"
+    const val LONG_EN = "LONG_EN"
+
+    val senders = arrayOf("+905321234567", "BANKAM", "08501234567", "TURKCELL", "12345", "+447700900123")
+
+    private val shortTurkish = arrayOf(
+        "Doğrulama kodunuz: 482913. Kimseyle paylaşmayınız.",
+        "Hesabınıza 1.250,00 TL havale yapılmıştır.",
+        "Kargonuz yola çıktı, takip no: 7729104",
+        "Tebrikler! Çekilişi kazandınız, hemen tıklayın",
+        "Randevunuz yarın saat 14:30'dadır.",
+        "Akşam yemeğe geliyor musun?",
+        "Son gün! Tüm ürünlerde %50 indirim",
+        "Kartınızdan 89,90 TL ödeme alınmıştır."
+    )
+
+    private val shortEnglish = arrayOf(
+        "Your verification code is 482913.",
+        "Payment of \$45.20 received on your account.",
+        "Your package has shipped and arrives tomorrow.",
+        "Congratulations winner! Claim your prize now",
+        "Reminder: dentist appointment at 3pm",
+        "Are we still on for dinner tonight?",
+        "Flash sale: 30% off everything today only",
+        "URGENT: call now to claim free cash"
+    )
+
+    private val longTurkish = arrayOf(
+        "Değerli müşterimiz, yaz kampanyamız başladı! Tüm elektronik ürünlerde sepette ek %20 indirim, " +
+            "seçili beyaz eşyalarda 12 aya varan taksit fırsatı ve 500 TL üzeri alışverişlerde ücretsiz kargo sizi bekliyor. " +
+            "Kampanya 31 Ağustos'a kadar geçerlidir. Detaylar için www.ornekmagaza.com adresini ziyaret edin. " +
+            "SMS listesinden çıkmak için RET yazıp 4609'a gönderin.",
+        "Sayın müşterimiz, 15.07 tarihli kredi kartı ekstreniz hazırlanmıştır. Dönem borcunuz 3.482,15 TL, " +
+            "asgari ödeme tutarınız 1.392,86 TL ve son ödeme tarihiniz 25.07'dir. Otomatik ödeme talimatınız bulunmamaktadır. " +
+            "Ödemenizi mobil uygulamamız, internet şubemiz veya ATM'lerimiz üzerinden yapabilirsiniz.",
+        "TEBRİKLER! Büyük yaz çekilişimizde 10.000 TL nakit ödül kazandınız! Ödülünüzü almak için 24 saat içinde " +
+            "aşağıdaki bağlantıya tıklayınız ve bilgilerinizi doğrulayınız. Bu fırsat sadece size özeldir, " +
+            "kaçırmayın! Hemen ara: 0850 123 45 67. Bonus kazanmak için arkadaşlarınızı davet edin.",
+        "Merhaba, siparişiniz hazırlanmış ve kargo firmasına teslim edilmiştir. Gönderi takip numaranız 7729104551 " +
+            "olup teslimat tahmini olarak 2 iş günü içinde gerçekleşecektir. Teslimat sırasında kimlik ibraz etmeniz " +
+            "gerekmektedir. Sorularınız için müşteri hizmetlerimizle iletişime geçebilirsiniz."
+    )
+
+    private val longEnglish = arrayOf(
+        "Dear customer, our summer sale has started! Enjoy an extra 20% off all electronics at checkout, " +
+            "interest-free installments on selected appliances and free delivery on orders over \$50. " +
+            "Offer valid until August 31st. Visit www.examplestore.com for details. Reply STOP to opt out of marketing messages.",
+        "Your credit card statement dated 07/15 is now available. Statement balance: \$3,482.15. " +
+            "Minimum payment due: \$139.29 by 07/25. You have no automatic payment set up. " +
+            "Pay through the mobile app, online banking or at any of our ATMs to avoid late fees.",
+        "CONGRATULATIONS! You have won a \$10,000 cash prize in our summer lottery draw! To claim your prize " +
+            "click here within 24 hours and verify your details. This limited time offer is exclusive to you, " +
+            "act now! Call now on 0800 123 4567. Earn bonus rewards by inviting your friends.",
+        "Hello, your order has been packed and handed over to the courier. Your tracking number is 7729104551 " +
+            "and delivery is expected within 2 business days. Please have photo ID ready at delivery. " +
+            "Contact customer service if you have any questions about your shipment."
+    )
+
+    fun messages(corpus: String): Array<String> = when (corpus) {
+        SHORT_TR -> shortTurkish
+        SHORT_EN -> shortEnglish
+        LONG_TR -> longTurkish
+        LONG_EN -> longEnglish
+        else -> throw IllegalArgumentException("Unknown corpus: $corpus")
+    }
+}
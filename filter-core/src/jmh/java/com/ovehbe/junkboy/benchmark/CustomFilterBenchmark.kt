@@ -0,0 +1,65 @@
+package com.ovehbe.junkboy.benchmark
+
+import com.ovehbe.junkboy.filters.CompiledRuleSet
+import com.ovehbe.junkboy.filters.CustomFilter
+import com.ovehbe.junkboy.filters.FilterResult
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Full rule-based pass over one message, per corpus and rule configuration.
+ */
+@State(Scope.Thread)
+open class CustomFilterBenchmark {
+
+    @Param(Corpora.SHORT_TR, Corpora.SHORT_EN, Corpora.LONG_TR, Corpora.LONG_EN)
+    lateinit var corpus: String
+
+    @Param("0", "50", "2000")
+    var customKeywordCount: Int = 0
+
+    @Param("false", "true")
+    var underAttackMode: Boolean = false
+
+    private lateinit var messages: Array<String>
+    private lateinit var rules: CompiledRuleSet
+    private var next = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        messages = Corpora.messages(corpus)
+        rules = CompiledRuleSet.compile(
+            isUnderAttackMode = underAttackMode,
+            customKeywords = List(customKeywordCount) { "keyword$it" },
+            customRegexPatterns = listOf("\\bpromo\\d+", "(?i)unsubscribe\\s+now")
+        )
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    fun messagesPerSecond(): FilterResult = filterNext()
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    fun nanosPerMessage(): FilterResult = filterNext()
+
+    private fun filterNext(): FilterResult {
+        val index = next
+        next = (index + 1) % messages.size
+        return CustomFilter.filterMessage(
+            messages[index],
+            Corpora.senders[index % Corpora.senders.size],
+            rules
+        )
+    }
+}
@@ -0,0 +1,82 @@
+package com.ovehbe.junkboy.benchmark
+
+import com.ovehbe.junkboy.classifier.BinaryVocabulary
+import com.ovehbe.junkboy.classifier.HashingEncoder
+import com.ovehbe.junkboy.classifier.InMemoryVocabulary
+import com.ovehbe.junkboy.classifier.MessageContext
+import com.ovehbe.junkboy.classifier.SequenceEncoder
+import com.ovehbe.junkboy.classifier.TextTokenizer
+import com.ovehbe.junkboy.classifier.TokenEncoder
+import com.ovehbe.junkboy.classifier.TokenSink
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+/**
+ * Text to model input token ids, per corpus.
+ */
+@State(Scope.Thread)
+open class TokenizerBenchmark {
+
+    @Param(Corpora.SHORT_TR, Corpora.SHORT_EN, Corpora.LONG_TR, Corpora.LONG_EN)
+    lateinit var corpus: String
+
+    @Param("IN_MEMORY", "BINARY", "HASHING")
+    lateinit var vocabularyFormat: String
+
+    private lateinit var messages: Array<String>
+    private lateinit var encoder: SequenceEncoder
+    private val tokenIds = IntArray(MAX_SEQUENCE_LENGTH)
+    private val sink = TokenSink { position, tokenId -> tokenIds[position] = tokenId }
+    private var next = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        messages = Corpora.messages(corpus)
+
+        // Every distinct corpus word plus the special tokens, like a real vocabulary file
+        val words = Corpora.messages(corpus).flatMap { TextTokenizer.tokenize(it) }.distinct()
+        val vocabulary = (listOf("<PAD>", TextTokenizer.UNKNOWN_TOKEN) + words)
+            .withIndex()
+            .associate { it.value to it.index }
+        encoder = when (vocabularyFormat) {
+            "HASHING" -> HashingEncoder(HASHING_BUCKETS)
+            "BINARY" -> {
+                val bytes = BinaryVocabulary.encode(vocabulary)
+                val buffer = ByteBuffer.allocateDirect(bytes.size).put(bytes)
+                TokenEncoder(BinaryVocabulary(buffer))
+            }
+            else -> TokenEncoder(InMemoryVocabulary.fromMap(vocabulary))
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    fun messagesPerSecond(): IntArray = encodeNext()
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    fun nanosPerMessage(): IntArray = encodeNext()
+
+    private fun encodeNext(): IntArray {
+        val index = next
+        next = (index + 1) % messages.size
+        encoder.encode(MessageContext.of(messages[index]), sink, MAX_SEQUENCE_LENGTH)
+        return tokenIds
+    }
+
+    private companion object {
+        const val MAX_SEQUENCE_LENGTH = 100
+        const val HASHING_BUCKETS = 20000
+    }
+}
@@ -0,0 +1,137 @@
+package com.ovehbe.junkboy.classifier
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+
+/**
+ * Vocabulary read directly from the compact binary format produced by
+ * [VocabularyCompiler]. The buffer is normally memory-mapped from assets, so
+ * loading costs no parsing and the table lives outside the Java heap.
+ *
+ * Layout (big-endian):
+ * ```
+ * int   magic ("JBV1")
+ * int   entry count
+ * int   table size (power of two)
+ * table size x { int hash, int key offset (-1 = empty slot), int id }
+ * keys: { short length, length x UTF-16 char }
+ * ```
+ * Slots use the same hashing and linear probing as [InMemoryVocabulary].
+ */
+class BinaryVocabulary(private val buffer: ByteBuffer) : TokenVocabulary {
+
+    override val size: Int
+    private val mask: Int
+    private val keysStart: Int
+
+    init {
+        require(buffer.getInt(0) == MAGIC) { "Not a binary vocabulary" }
+        size = buffer.getInt(4)
+        val tableSize = buffer.getInt(8)
+        mask = tableSize - 1
+        keysStart = HEADER_BYTES + tableSize * SLOT_BYTES
+    }
+
+    override fun idOf(chars: CharArray, offset: Int, length: Int): Int {
+        val hash = TokenVocabulary.hash(chars, offset, length)
+        var slot = TokenVocabulary.mix(hash) and mask
+        while (true) {
+            val slotPosition = HEADER_BYTES + slot * SLOT_BYTES
+            val keyOffset = buffer.getInt(slotPosition + 4)
+            if (keyOffset < 0) {
+                return -1
+            }
+            if (buffer.getInt(slotPosition) == hash && matches(keysStart + keyOffset, chars, offset, length)) {
+                return buffer.getInt(slotPosition + 8)
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun matches(position: Int, chars: CharArray, offset: Int, length: Int): Boolean {
+        if (buffer.getShort(position).toInt() != length) return false
+        val charsStart = position + 2
+        for (i in 0 until length) {
+            if (buffer.getChar(charsStart + i * 2) != chars[offset + i]) return false
+        }
+        return true
+    }
+
+    companion object {
+        const val MAGIC = 0x4A425631 // "JBV1"
+        private const val HEADER_BYTES = 12
+        private const val SLOT_BYTES = 12
+
+        fun encode(entries: Map<String, Int>): ByteArray {
+            val tableSize = TokenVocabulary.tableSize(entries.size)
+            val mask = tableSize - 1
+            val hashes = IntArray(tableSize)
+            val keyOffsets = IntArray(tableSize) { -1 }
+            val ids = IntArray(tableSize)
+
+            val keys = ByteArrayOutputStream()
+            val keysOut = DataOutputStream(keys)
+            for ((token, id) in entries) {
+                require(token.length <= Short.MAX_VALUE) { "Token too long: ${token.take(20)}..." }
+                var slot = TokenVocabulary.mix(token.hashCode()) and mask
+                while (keyOffsets[slot] >= 0) {
+                    slot = (slot + 1) and mask
+                }
+                hashes[slot] = token.hashCode()
+                keyOffsets[slot] = keysOut.size()
+                ids[slot] = id
+                keysOut.writeShort(token.length)
+                keysOut.writeChars(token)
+            }
+            keysOut.flush()
+
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(entries.size)
+                out.writeInt(tableSize)
+                for (slot in 0 until tableSize) {
+                    out.writeInt(hashes[slot])
+                    out.writeInt(keyOffsets[slot])
+                    out.writeInt(ids[slot])
+                }
+                keys.writeTo(out)
+            }
+            return bytes.toByteArray()
+        }
+    }
+}
+
+/**
+ * Build-time conversion of the tab-separated `token<TAB>id` vocabulary text
+ * file into the [BinaryVocabulary] format.
+ *
+ * Usage: `VocabularyCompiler <vocabulary.txt> <vocabulary.bin>`
+ */
+object VocabularyCompiler {
+
+    fun parse(lines: Sequence<String>): Map<String, Int> {
+        val vocab = LinkedHashMap<String, Int>()
+        for (line in lines) {
+            val parts = line.split("\t")
+            if (parts.size == 2) {
+                vocab[parts[0]] = parts[1].toIntOrNull() ?: 0
+            }
+        }
+        return vocab
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        require(args.size == 2) { "Usage: VocabularyCompiler <vocabulary.txt> <vocabulary.bin>" }
+        val source = File(args[0])
+        val target = File(args[1])
+
+        val entries = source.useLines { parse(it) }
+        target.parentFile?.mkdirs()
+        target.writeBytes(BinaryVocabulary.encode(entries))
+        println("Compiled ${entries.size} vocabulary entries into $target (${target.length()} bytes)")
+    }
+}
@@ -0,0 +1,185 @@
+package com.ovehbe.junkboy.classifier
+
+import java.text.Normalizer
+
+/**
+ * Undoes the tricks spammers use to slip past keyword lists: zero-width and
+ * other invisible characters, Cyrillic and Greek look-alikes, accents,
+ * fullwidth letters, leetspeak inside words ("k@z4n") and spaced-out
+ * letters ("k a z a n", "k.a.z.a.n").
+ *
+ * Works in two steps over one buffer. [plainChar] maps each character
+ * through a precomputed table, and [collapse] then rewrites the mapped
+ * characters in place where the neighbours matter. [MessageContext] runs
+ * both while it folds a message, so no extra string is built per stage.
+ */
+object Deobfuscator {
+
+    /** Returned by [plainChar] for characters that are dropped. */
+    const val DROP = 0.toChar()
+
+    /** Fewer single letters in a row than this are left alone, e.g. "T.C." */
+    const val MIN_SPACED_LETTERS = 3
+
+    // Everything up to the end of the Cyrillic Supplement, plus General Punctuation
+    private const val TABLE_SIZE = 0x530
+    private const val PUNCTUATION_START = 0x2000
+    private const val PUNCTUATION_END = 0x206F
+    private const val FULLWIDTH_START = 0xFF01
+    private const val FULLWIDTH_END = 0xFF5E
+    private const val FULLWIDTH_OFFSET = 0xFEE0
+
+    // Cyrillic and Greek letters that look like Latin ones, both cases
+    private const val CONFUSABLES =
+        "аa вb еe ѐe ёe кk мm нh оo рp сc тt уy хx іi їi јj ѕs ԁd ԛq ԝw ɡg ɑa ɩi " +
+        "αa βb εe ζz ηn ιi κk μu νv οo ρp τt υu χx ωw"
+
+    private const val TURKISH_LETTERS = "çğıöşüÇĞİÖŞÜ"
+
+    private val table = CharArray(TABLE_SIZE) { buildEntry(it.toChar()) }
+    private val punctuationTable = CharArray(PUNCTUATION_END - PUNCTUATION_START + 1) {
+        buildPunctuationEntry((PUNCTUATION_START + it).toChar())
+    }
+
+    // Characters that stand in for a letter when written inside a word
+    private val leetTable = CharArray(0x80).also {
+        it['0'.code] = 'o'
+        it['1'.code] = 'i'
+        it['3'.code] = 'e'
+        it['4'.code] = 'a'
+        it['5'.code] = 's'
+        it['7'.code] = 't'
+        it['@'.code] = 'a'
+        it['$'.code] = 's'
+        it['!'.code] = 'i'
+        it['|'.code] = 'l'
+    }
+
+    /**
+     * Folds [c] like [TextTokenizer.fold] and maps look-alikes to the ASCII
+     * or Turkish letter they imitate. Returns [DROP] for invisible characters.
+     */
+    fun plainChar(c: Char): Char {
+        val code = c.code
+        return when {
+            code < TABLE_SIZE -> table[code]
+            code in PUNCTUATION_START..PUNCTUATION_END -> punctuationTable[code - PUNCTUATION_START]
+            code in FULLWIDTH_START..FULLWIDTH_END -> table[code - FULLWIDTH_OFFSET]
+            c == '\uFEFF' -> DROP
+            else -> TextTokenizer.fold(c)
+        }
+    }
+
+    /**
+     * Rewrites the first [length] characters of [chars], which must already
+     * be mapped by [plainChar], and returns the new length. Spaced-out
+     * letters are joined and leetspeak between letters is replaced. Each
+     * character is looked at a bounded number of times, so this is linear.
+     */
+    fun collapse(chars: CharArray, length: Int): Int {
+        var write = 0
+        var read = 0
+        while (read < length) {
+            val c = chars[read]
+            val atWordStart = write == 0 || !chars[write - 1].isLetterOrDigit()
+
+            if (atWordStart && c.isLetter()) {
+                val letters = spacedLetters(chars, read, length)
+                if (letters >= MIN_SPACED_LETTERS) {
+                    for (k in 0 until letters) {
+                        chars[write++] = chars[read + 2 * k]
+                    }
+                    read += 2 * letters - 1
+                    continue
+                }
+            }
+
+            if (!atWordStart && chars[write - 1].isLetter() && leetLetter(c) != DROP) {
+                // Only a run of stand-ins with letters on both sides is part of the word
+                var end = read
+                while (end < length && leetLetter(chars[end]) != DROP) end++
+                if (end < length && chars[end].isLetter()) {
+                    while (read < end) {
+                        chars[write++] = leetLetter(chars[read++])
+                    }
+                    continue
+                }
+            }
+
+            chars[write++] = c
+            read++
+        }
+        return write
+    }
+
+    /** [text] mapped by [plainChar] and [collapse], e.g. for compiling keywords. */
+    fun deobfuscate(text: CharSequence): String {
+        val chars = CharArray(text.length)
+        var length = 0
+        for (i in 0 until text.length) {
+            val c = plainChar(text[i])
+            if (c != DROP) chars[length++] = c
+        }
+        return String(chars, 0, collapse(chars, length))
+    }
+
+    private fun leetLetter(c: Char): Char {
+        return if (c.code < leetTable.size) leetTable[c.code] else DROP
+    }
+
+    /**
+     * Number of single letters starting at [start] that are each followed
+     * by one spacer and then the next single letter.
+     */
+    private fun spacedLetters(chars: CharArray, start: Int, length: Int): Int {
+        var letters = 0
+        var position = start
+        while (position < length && chars[position].isLetter()) {
+            if (position + 1 < length && chars[position + 1].isLetterOrDigit()) break
+            letters++
+            if (position + 2 >= length || !isSpacer(chars[position + 1])) break
+            position += 2
+        }
+        return letters
+    }
+
+    private fun isSpacer(c: Char): Boolean {
+        return when (c) {
+            ' ', '.', '-', '_', '*', '·' -> true
+            else -> false
+        }
+    }
+
+    private fun buildEntry(c: Char): Char {
+        when (c) {
+            // Soft hyphen and combining grapheme joiner
+            '\u00AD', '\u034F' -> return DROP
+        }
+        // Combining accents stacked on letters
+        if (c in '\u0300'..'\u036F') return DROP
+        if (c in TURKISH_LETTERS) return TextTokenizer.fold(c)
+
+        val folded = TextTokenizer.fold(c)
+        for (i in CONFUSABLES.indices step 3) {
+            if (CONFUSABLES[i] == folded) return CONFUSABLES[i + 1]
+        }
+
+        // Accented Latin letters lose their accent, e.g. "à" -> "a"
+        val decomposed = Normalizer.normalize(folded.toString(), Normalizer.Form.NFD)
+        if (decomposed.length > 1 && decomposed[0] in 'a'..'z') return decomposed[0]
+        return folded
+    }
+
+    private fun buildPunctuationEntry(c: Char): Char {
+        return when (c) {
+            // Zero-width spaces, joiners and direction marks
+            in '\u200B'..'\u200F', in '\u202A'..'\u202E', in '\u2060'..'\u206F' -> DROP
+            in '\u2000'..'\u200A', '\u202F', '\u205F', '\u2028', '\u2029' -> ' '
+            in '\u2010'..'\u2015' -> '-'
+            '\u2018', '\u2019' -> '\''
+            '\u201C', '\u201D' -> '"'
+            '\u2024' -> '.'
+            else -> c
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.ovehbe.junkboy.classifier
+
+/**
+ * Dictionary-free [SequenceEncoder] for models trained with the hashing
+ * trick. Every token is split into a stem of its first [stemLength]
+ * characters and, if longer, the rest as a suffix piece. Each piece is
+ * hashed into one of [bucketCount] ids, so "kazandınız", "kazandın" and
+ * "kazanmak" share the stem id of "kazan" instead of all being unknown.
+ *
+ * Uses constant memory whatever the language and allocates nothing per
+ * message. Ids are reproducible in training code: a piece's id is
+ * `1 + fnv1a32(piece) mod (bucketCount - 1)`, with the unsigned 32-bit
+ * FNV-1a hash of the folded UTF-16 characters and suffix pieces hashed
+ * with a leading "##". Id 0 is padding.
+ */
+class HashingEncoder(
+    private val bucketCount: Int,
+    private val stemLength: Int = DEFAULT_STEM_LENGTH
+) : SequenceEncoder {
+
+    init {
+        require(bucketCount > 1) { "Need at least two buckets, got $bucketCount" }
+        require(stemLength > 0) { "Stem length must be positive, got $stemLength" }
+    }
+
+    override fun encode(message: MessageContext, sink: TokenSink, maxSequenceLength: Int): Int {
+        val chars = message.chars
+        var count = 0
+        var index = 0
+        while (index < message.tokenCount && count < maxSequenceLength) {
+            val start = message.tokenStart(index)
+            val end = message.tokenEnd(index)
+            val stemEnd = minOf(start + stemLength, end)
+
+            var stemHash = FNV_OFFSET
+            for (i in start until stemEnd) {
+                stemHash = (stemHash xor chars[i].code) * FNV_PRIME
+            }
+            sink.put(count++, idOf(stemHash))
+
+            if (stemEnd < end && count < maxSequenceLength) {
+                var suffixHash = SUFFIX_OFFSET
+                for (i in stemEnd until end) {
+                    suffixHash = (suffixHash xor chars[i].code) * FNV_PRIME
+                }
+                sink.put(count++, idOf(suffixHash))
+            }
+            index++
+        }
+
+        for (position in count until maxSequenceLength) {
+            sink.put(position, TextTokenizer.PADDING_ID)
+        }
+        return count
+    }
+
+    override fun count(message: MessageContext, limit: Int): Int {
+        var count = 0
+        for (index in 0 until message.tokenCount) {
+            count += if (message.tokenLength(index) > stemLength) 2 else 1
+            if (count >= limit) return limit
+        }
+        return count
+    }
+
+    private fun idOf(hash: Int): Int {
+        return 1 + ((hash.toLong() and 0xFFFFFFFFL) % (bucketCount - 1)).toInt()
+    }
+
+    companion object {
+        /** Long enough for most Turkish roots, short enough to leave the suffixes out. */
+        const val DEFAULT_STEM_LENGTH = 5
+
+        private const val FNV_OFFSET = -0x7ee3623b // 0x811c9dc5
+        private const val FNV_PRIME = 0x01000193
+
+        // Hash state after "##", the marker that keeps suffixes apart from stems; computed
+        // in Long and truncated, which is what the wrapping Int arithmetic would give
+        private val SUFFIX_OFFSET = suffixOffset()
+
+        private fun suffixOffset(): Int {
+            var hash = FNV_OFFSET.toLong()
+            repeat(2) { hash = ((hash xor '#'.code.toLong()) * FNV_PRIME) and 0xFFFFFFFFL }
+            return hash.toInt()
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ovehbe.junkboy.classifier
+
+/**
+ * One incoming message, normalized once and shared by every filtering stage.
+ *
+ * [of] makes a single pass over the text with [TextTokenizer]'s and
+ * [Deobfuscator]'s tables and records the folded text, a [plain] copy with
+ * obfuscation undone, where the tokens are and the features the stages look
+ * at. Rules, the model, the verdict cache and the near-duplicate index all
+ * read from here instead of lowercasing and scanning the text again, so
+ * they cannot disagree about what the message says.
+ */
+class MessageContext private constructor(
+    /** The message as received. */
+    val text: String,
+    val sender: String,
+    // Folded characters, kept as an array so vocabulary lookups need no copies
+    internal val chars: CharArray,
+    /** Start and end offsets of each token, interleaved. */
+    private val tokenBounds: IntArray,
+    /**
+     * The folded text with look-alikes, invisible characters, leetspeak and
+     * spaced-out letters undone. Keyword lists and patterns match against
+     * this; offsets do not line up with [text].
+     */
+    val plain: String,
+    /** Number of tokens as the model's tokenizer splits them. */
+    val tokenCount: Int,
+    /** The sender looks like a plain phone number rather than a name. */
+    val isNumericSender: Boolean
+) {
+
+    /** [text] folded with [TextTokenizer.fold]; same length and offsets as [text]. */
+    val folded: String = String(chars)
+
+    /** Offset in [folded] of the first character of token [index]. */
+    fun tokenStart(index: Int): Int = tokenBounds[2 * index]
+
+    /** Offset in [folded] just past the last character of token [index]. */
+    fun tokenEnd(index: Int): Int = tokenBounds[2 * index + 1]
+
+    fun tokenLength(index: Int): Int = tokenEnd(index) - tokenStart(index)
+
+    companion object {
+
+        fun of(text: String, sender: String = ""): MessageContext {
+            val chars = CharArray(text.length)
+            val plainChars = CharArray(text.length)
+            var plainLength = 0
+            // At most one token per two characters, as tokens are separated
+            val bounds = IntArray(text.length + 1)
+            var tokenCount = 0
+            var inToken = false
+            for (i in 0 until text.length) {
+                val c = text[i]
+                chars[i] = TextTokenizer.fold(c)
+                val plainChar = Deobfuscator.plainChar(c)
+                if (plainChar != Deobfuscator.DROP) plainChars[plainLength++] = plainChar
+                val isTokenChar = TextTokenizer.tokenChar(c) != 0.toChar()
+                if (isTokenChar && !inToken) {
+                    bounds[2 * tokenCount] = i
+                } else if (!isTokenChar && inToken) {
+                    bounds[2 * tokenCount + 1] = i
+                    tokenCount++
+                }
+                inToken = isTokenChar
+            }
+            if (inToken) {
+                bounds[2 * tokenCount + 1] = text.length
+                tokenCount++
+            }
+
+            return MessageContext(
+                text = text,
+                sender = sender,
+                chars = chars,
+                plain = String(plainChars, 0, Deobfuscator.collapse(plainChars, plainLength)),
+                tokenBounds = bounds,
+                tokenCount = tokenCount,
+                isNumericSender = sender.length > 4 && sender.all { it in '0'..'9' }
+            )
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.ovehbe.junkboy.classifier
+
+/**
+ * Turns message text into the token id sequence the TFLite model expects.
+ * This should match the preprocessing used when the model was trained:
+ * lowercase, keep a-z, 0-9 and Turkish letters, split on everything else.
+ */
+object TextTokenizer {
+
+    const val PADDING_ID = 0
+    const val UNKNOWN_TOKEN = "<UNK>"
+
+    // Folding and token tables for every character up to Latin Extended-A,
+    // which covers English and Turkish, so both are a single array load
+    private const val TABLE_SIZE = 0x180
+    private val foldTable = CharArray(TABLE_SIZE) { foldSlow(it.toChar()) }
+    private val tokenTable = CharArray(TABLE_SIZE) { if (isTokenLetter(foldTable[it])) foldTable[it] else 0.toChar() }
+
+    /**
+     * Lowercases [c] without depending on the default locale. Dotted İ folds
+     * to i and dotless ı stays ı, as in Turkish, while I folds to i so English
+     * text is unaffected. Every character folds to exactly one character, so
+     * offsets into the original text stay valid.
+     */
+    fun fold(c: Char): Char {
+        return if (c.code < TABLE_SIZE) foldTable[c.code] else Character.toLowerCase(c)
+    }
+
+    /** Folds [c] and returns it if it can be part of a token, otherwise 0. */
+    fun tokenChar(c: Char): Char {
+        return if (c.code < TABLE_SIZE) tokenTable[c.code] else 0.toChar()
+    }
+
+    private fun foldSlow(c: Char): Char {
+        // String.lowercase() would turn İ into i plus a combining dot outside the Turkish locale
+        return if (c == 'İ') 'i' else Character.toLowerCase(c)
+    }
+
+    private fun isTokenLetter(c: Char): Boolean {
+        return when (c) {
+            in 'a'..'z', in '0'..'9', 'ç', 'ğ', 'ı', 'ö', 'ş', 'ü' -> true
+            else -> false
+        }
+    }
+
+    /**
+     * Splits [text] into lowercase tokens. Allocates; meant for tooling and
+     * benchmarks, the inference path uses [TokenEncoder].
+     */
+    fun tokenize(text: CharSequence): List<String> {
+        val tokens = mutableListOf<String>()
+        val token = StringBuilder()
+        for (i in 0 until text.length) {
+            val c = tokenChar(text[i])
+            if (c != 0.toChar()) {
+                token.append(c)
+            } else if (token.isNotEmpty()) {
+                tokens.add(token.toString())
+                token.setLength(0)
+            }
+        }
+        if (token.isNotEmpty()) {
+            tokens.add(token.toString())
+        }
+        return tokens
+    }
+}
+
+/**
+ * Receives token ids for one input row. Implemented by whatever owns the
+ * model input buffer so ids are written straight into it.
+ */
+fun interface TokenSink {
+    fun put(position: Int, tokenId: Int)
+}
+
+/**
+ * Turns a message into one row of model input ids. Implementations are
+ * not thread-safe; use one per inference thread.
+ */
+interface SequenceEncoder {
+
+    /**
+     * Writes exactly [maxSequenceLength] ids to [sink], truncating long
+     * messages and padding short ones with [TextTokenizer.PADDING_ID].
+     * Returns the number of real ids written.
+     */
+    fun encode(message: MessageContext, sink: TokenSink, maxSequenceLength: Int): Int
+
+    /** Number of real ids [encode] would write for [message], stopping at [limit]. */
+    fun count(message: MessageContext, limit: Int): Int
+}
+
+/**
+ * Vocabulary lookup that produces no garbage: the tokens [MessageContext]
+ * already found are looked up in the [TokenVocabulary] as slices of its
+ * folded text and written to a [TokenSink].
+ *
+ * Not thread-safe; use one encoder per inference thread.
+ */
+class TokenEncoder(
+    private val vocabulary: TokenVocabulary,
+    private val maxTokenLength: Int = DEFAULT_MAX_TOKEN_LENGTH
+) : SequenceEncoder {
+
+    private val unknownId: Int = vocabulary.idOf(
+        TextTokenizer.UNKNOWN_TOKEN.toCharArray(), 0, TextTokenizer.UNKNOWN_TOKEN.length
+    ).let { if (it >= 0) it else TextTokenizer.PADDING_ID }
+
+    /** Writes one vocabulary id per token; see [SequenceEncoder.encode]. */
+    override fun encode(message: MessageContext, sink: TokenSink, maxSequenceLength: Int): Int {
+        val count = minOf(message.tokenCount, maxSequenceLength)
+        for (index in 0 until count) {
+            sink.put(index, lookup(message, index))
+        }
+        for (position in count until maxSequenceLength) {
+            sink.put(position, TextTokenizer.PADDING_ID)
+        }
+        return count
+    }
+
+    override fun count(message: MessageContext, limit: Int): Int = minOf(message.tokenCount, limit)
+
+    private fun lookup(message: MessageContext, index: Int): Int {
+        val length = message.tokenLength(index)
+        // Tokens this long cannot be in the vocabulary
+        if (length > maxTokenLength) return unknownId
+        val id = vocabulary.idOf(message.chars, message.tokenStart(index), length)
+        return if (id >= 0) id else unknownId
+    }
+
+    companion object {
+        const val DEFAULT_MAX_TOKEN_LENGTH = 64
+    }
+}
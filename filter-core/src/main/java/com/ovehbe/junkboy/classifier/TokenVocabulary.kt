@@ -0,0 +1,92 @@
+package com.ovehbe.junkboy.classifier
+
+/**
+ * Token to id lookup that works on a slice of a char array, so the tokenizer
+ * never has to create a String per token.
+ */
+interface TokenVocabulary {
+
+    val size: Int
+
+    /** Id of the token in `chars[offset until offset + length]`, or -1 if it is not in the vocabulary. */
+    fun idOf(chars: CharArray, offset: Int, length: Int): Int
+
+    companion object {
+        /** Hash of a char slice; equal to [String.hashCode] of the same characters. */
+        fun hash(chars: CharArray, offset: Int, length: Int): Int {
+            var h = 0
+            for (i in offset until offset + length) {
+                h = 31 * h + chars[i].code
+            }
+            return h
+        }
+
+        /** Spreads the hash bits so the low bits used for slot selection are well mixed. */
+        fun mix(hash: Int): Int {
+            val h = hash * -0x61c88647
+            return h xor (h ushr 16)
+        }
+
+        /** Smallest power of two table size that keeps the load factor at or below 1/2. */
+        fun tableSize(entries: Int): Int {
+            var capacity = 2
+            while (capacity < entries * 2) {
+                capacity = capacity shl 1
+            }
+            return capacity
+        }
+    }
+}
+
+/**
+ * Open-addressing, linear-probing string table. Ids are stored in a primitive
+ * array, so lookups neither box nor allocate.
+ */
+class InMemoryVocabulary private constructor(
+    private val keys: Array<String?>,
+    private val ids: IntArray,
+    override val size: Int
+) : TokenVocabulary {
+
+    private val mask = keys.size - 1
+
+    override fun idOf(chars: CharArray, offset: Int, length: Int): Int {
+        var slot = TokenVocabulary.mix(TokenVocabulary.hash(chars, offset, length)) and mask
+        while (true) {
+            val key = keys[slot] ?: return -1
+            if (matches(key, chars, offset, length)) {
+                return ids[slot]
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun matches(key: String, chars: CharArray, offset: Int, length: Int): Boolean {
+        if (key.length != length) return false
+        for (i in 0 until length) {
+            if (key[i] != chars[offset + i]) return false
+        }
+        return true
+    }
+
+    companion object {
+
+        fun fromMap(entries: Map<String, Int>): InMemoryVocabulary {
+            val capacity = TokenVocabulary.tableSize(entries.size)
+            val keys = arrayOfNulls<String>(capacity)
+            val ids = IntArray(capacity)
+            val mask = capacity - 1
+
+            for ((token, id) in entries) {
+                var slot = TokenVocabulary.mix(token.hashCode()) and mask
+                while (keys[slot] != null) {
+                    slot = (slot + 1) and mask
+                }
+                keys[slot] = token
+                ids[slot] = id
+            }
+
+            return InMemoryVocabulary(keys, ids, entries.size)
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.ovehbe.junkboy.database
+
+// Shared by the filter engine and the Room entities, so they live in filter-core
+// but keep their original package
+
+enum class MessageCategory {
+    GENERAL,
+    PROMOTION,
+    NOTIFICATION,
+    TRANSACTION,
+    JUNK
+}
+
+enum class FilterType {
+    ML_CLASSIFICATION,
+    KEYWORD_FILTER,
+    REGEX_FILTER,
+    USER_RULE,
+    UNDER_ATTACK_MODE,
+    SENDER_REPUTATION
+}
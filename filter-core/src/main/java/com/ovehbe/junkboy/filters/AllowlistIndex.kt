@@ -0,0 +1,35 @@
+package com.ovehbe.junkboy.filters
+
+/**
+ * In-memory copy of the user's allowed senders, so checking a message's
+ * sender is a hash lookup instead of a database query.
+ *
+ * Senders are compared in [SenderNormalizer] form, so a number matches
+ * whether it was saved or arrives with or without its country code. A [BloomFilter] in front of the
+ * set answers the common case, a sender that is not allowed, without
+ * touching the set. The whole index is swapped at once by [replaceAll], so
+ * lookups never see a half-updated list and need no lock.
+ */
+class AllowlistIndex(private val normalizer: SenderNormalizer = SenderNormalizer.DEFAULT) {
+
+    private class Snapshot(val filter: BloomFilter, val senders: Set<String>)
+
+    @Volatile
+    private var snapshot = Snapshot(BloomFilter(0), emptySet())
+
+    val size: Int
+        get() = snapshot.senders.size
+
+    fun replaceAll(senders: Collection<String>) {
+        val normalized = senders.mapTo(HashSet(senders.size * 2)) { normalizer.normalize(it) }
+        val filter = BloomFilter(normalized.size)
+        normalized.forEach { filter.add(it) }
+        snapshot = Snapshot(filter, normalized)
+    }
+
+    fun contains(sender: String): Boolean {
+        val key = normalizer.normalize(sender)
+        val current = snapshot
+        return current.filter.mightContain(key) && key in current.senders
+    }
+}
@@ -0,0 +1,46 @@
+package com.ovehbe.junkboy.filters
+
+/**
+ * Fixed-size Bloom filter over strings. Sized for [expectedEntries] at
+ * roughly a 1% false positive rate; [mightContain] is never wrong about a
+ * string that was added.
+ */
+class BloomFilter(expectedEntries: Int) {
+
+    private val bitCount = maxOf(64, expectedEntries * BITS_PER_ENTRY)
+    private val bits = LongArray((bitCount + 63) / 64)
+
+    fun add(value: String) {
+        val h1 = value.hashCode()
+        val h2 = secondHash(value)
+        for (i in 0 until HASH_COUNT) {
+            val bit = Math.floorMod(h1 + i * h2, bitCount)
+            bits[bit ushr 6] = bits[bit ushr 6] or (1L shl bit)
+        }
+    }
+
+    fun mightContain(value: String): Boolean {
+        val h1 = value.hashCode()
+        val h2 = secondHash(value)
+        for (i in 0 until HASH_COUNT) {
+            val bit = Math.floorMod(h1 + i * h2, bitCount)
+            if (bits[bit ushr 6] and (1L shl bit) == 0L) return false
+        }
+        return true
+    }
+
+    // FNV-1a, independent enough of String.hashCode for double hashing; odd so every step moves
+    private fun secondHash(value: String): Int {
+        var hash = -0x7ee3623b
+        for (c in value) {
+            hash = (hash xor c.code) * 0x01000193
+        }
+        return hash or 1
+    }
+
+    private companion object {
+        // 10 bits and 7 hashes per entry give about 1% false positives
+        const val BITS_PER_ENTRY = 10
+        const val HASH_COUNT = 7
+    }
+}
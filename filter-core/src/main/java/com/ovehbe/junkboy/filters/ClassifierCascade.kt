@@ -0,0 +1,93 @@
+package com.ovehbe.junkboy.filters
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/** Stages of the classifier cascade, cheapest first. */
+enum class CascadeTier {
+    /** The sender is on the user's allowlist. */
+    ALLOWLIST,
+
+    /** The verdict cache or the near-duplicate index already had a verdict. */
+    SIGNATURE,
+
+    /** The sender's recent messages were consistent enough to vouch for this one. */
+    REPUTATION,
+
+    /** The keyword automaton and patterns were confident on their own. */
+    RULES,
+
+    /** The rules were unsure and the model ran. */
+    MODEL
+}
+
+/**
+ * Range of rule junk scores, inclusive on both ends, in which the rules are
+ * too unsure to decide alone and the model has to run. The full range
+ * `0..1` always runs the model.
+ */
+data class UncertaintyBand(val low: Float, val high: Float) {
+
+    init {
+        require(low in 0f..1f && high in 0f..1f && low <= high) { "Invalid band $low..$high" }
+    }
+
+    operator fun contains(score: Float): Boolean = score in low..high
+
+    companion object {
+        // Sends plain, confident rule verdicts (a junk keyword or pattern, several
+        // transaction or notification keywords) past the model, and everything
+        // vaguer such as a single promotion keyword or no keyword at all to it
+        val DEFAULT = UncertaintyBand(0.25f, 0.75f)
+    }
+}
+
+/**
+ * Decides when the cheap stages are sure enough to skip the model, and
+ * counts which tier settled each message since the process started.
+ */
+object ClassifierCascade {
+
+    private val hits = AtomicLongArray(CascadeTier.values().size)
+
+    /**
+     * How likely the rules think the message is junk: the confidence of a
+     * blocking verdict, or one minus the confidence of a non-blocking one.
+     */
+    fun junkScore(ruleResult: FilterResult): Float {
+        return if (ruleResult.isBlocked) ruleResult.confidence else 1f - ruleResult.confidence
+    }
+
+    /**
+     * True if [ruleResult] can be used as the final verdict without running
+     * the model. Never true without a rule verdict or with the cascade off
+     * (a null [band]).
+     */
+    fun isDecisive(ruleResult: FilterResult?, band: UncertaintyBand?): Boolean {
+        if (ruleResult == null || band == null) return false
+        return junkScore(ruleResult) !in band
+    }
+
+    fun record(tier: CascadeTier) {
+        hits.incrementAndGet(tier.ordinal)
+    }
+
+    val total: Long
+        get() {
+            var sum = 0L
+            for (i in 0 until hits.length()) sum += hits.get(i)
+            return sum
+        }
+
+    /** Share of recorded messages settled by each tier; all zero before the first message. */
+    fun hitRates(): Map<CascadeTier, Float> {
+        val counts = CascadeTier.values().map { hits.get(it.ordinal) }
+        val sum = counts.sum()
+        return CascadeTier.values().associateWith { tier ->
+            if (sum > 0) counts[tier.ordinal].toFloat() / sum else 0f
+        }
+    }
+
+    fun reset() {
+        for (i in 0 until hits.length()) hits.set(i, 0L)
+    }
+}
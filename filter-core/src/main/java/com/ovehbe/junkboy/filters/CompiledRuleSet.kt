@@ -0,0 +1,108 @@
+package com.ovehbe.junkboy.filters
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Immutable snapshot of the user's filter rules with everything pre-compiled.
+ *
+ * A snapshot is built once when the rules change and then shared by every
+ * message, so neither the keyword automaton nor the custom regexes are
+ * compiled on the hot path.
+ */
+class CompiledRuleSet private constructor(
+    val version: Long,
+    /** Hash of the rule contents; unlike [version] it is stable across processes. */
+    val fingerprint: Long,
+    val isUnderAttackMode: Boolean,
+    val customKeywords: List<String>,
+    val customRegexPatterns: List<String>,
+    internal val customRegex: List<Regex>,
+    internal val keywordMatcher: KeywordMatcher,
+    /** Allow and block rules by sender, checked before any content classification. */
+    val senderRules: SenderRuleTrie
+) {
+
+    companion object {
+        private val nextVersion = AtomicLong()
+
+        /** Built-in rules only: no custom keywords or patterns, attack mode off. */
+        val EMPTY: CompiledRuleSet = compile()
+
+        fun compile(
+            isUnderAttackMode: Boolean = false,
+            customKeywords: List<String> = emptyList(),
+            customRegexPatterns: List<String> = emptyList(),
+            senderRules: List<SenderRule> = emptyList()
+        ): CompiledRuleSet {
+            // Patterns are validated when saved; anything stored before that is dropped here once
+            val validPatterns = customRegexPatterns.filter { validatePattern(it) == null }
+            val senderRuleTrie = SenderRuleTrie.compile(senderRules)
+            return CompiledRuleSet(
+                version = nextVersion.incrementAndGet(),
+                fingerprint = fingerprintOf(isUnderAttackMode, customKeywords, validPatterns, senderRules),
+                isUnderAttackMode = isUnderAttackMode,
+                customKeywords = customKeywords.toList(),
+                customRegexPatterns = validPatterns,
+                customRegex = validPatterns.map { Regex(it, RegexOption.IGNORE_CASE) },
+                keywordMatcher = CustomFilter.compileKeywords(customKeywords),
+                senderRules = senderRuleTrie
+            )
+        }
+
+        private fun fingerprintOf(
+            isUnderAttackMode: Boolean,
+            customKeywords: List<String>,
+            customRegexPatterns: List<String>,
+            senderRules: List<SenderRule>
+        ): Long {
+            var hash = CustomFilter.RULES_REVISION.toLong()
+            hash = 31 * hash + if (isUnderAttackMode) 1 else 0
+            for (keyword in customKeywords) {
+                hash = 31 * hash + keyword.hashCode()
+            }
+            // Keeps a keyword and an identical pattern from hashing the same
+            hash = 31 * hash + customKeywords.size
+            for (pattern in customRegexPatterns) {
+                hash = 31 * hash + pattern.hashCode()
+            }
+            hash = 31 * hash + customRegexPatterns.size
+            for (rule in senderRules) {
+                hash = 31 * hash + rule.hashCode()
+            }
+            return hash
+        }
+
+        /**
+         * Returns null if [pattern] is a valid regex, otherwise the reason it is not.
+         */
+        fun validatePattern(pattern: String): String? {
+            if (pattern.isBlank()) {
+                return "Pattern is empty"
+            }
+            return try {
+                Regex(pattern, RegexOption.IGNORE_CASE)
+                null
+            } catch (e: PatternSyntaxException) {
+                e.description ?: "Invalid pattern"
+            }
+        }
+    }
+}
+
+/**
+ * Holds the active [CompiledRuleSet]. Writers publish a new snapshot whenever
+ * the rules change; readers always see a complete snapshot.
+ */
+object FilterRules {
+
+    private val current = AtomicReference<CompiledRuleSet?>(null)
+
+    /** The active snapshot, or null if none has been published in this process yet. */
+    fun current(): CompiledRuleSet? = current.get()
+
+    fun publish(rules: CompiledRuleSet) {
+        current.set(rules)
+    }
+}
@@ -1,5 +1,6 @@
 package com.ovehbe.junkboy.filters
 
+import com.ovehbe.junkboy.classifier.MessageContext
 import com.ovehbe.junkboy.database.FilterType
 import com.ovehbe.junkboy.database.MessageCategory
 
@@ -13,6 +14,12 @@ data class FilterResult(
 
 object CustomFilter {
     
+    /** Bump whenever the built-in keywords or patterns change, so cached verdicts are dropped. */
+    const val RULES_REVISION = 4
+    
+    /** Rule of attack mode's block of numeric senders, a verdict about the sender rather than the text. */
+    const val SUSPICIOUS_SENDER_RULE = "suspicious_sender"
+    
     // Turkish and English junk keywords
     private val junkKeywords = listOf(
         // English spam keywords
@@ -49,6 +56,14 @@ object CustomFilter {
         "aktivasyon", "doğrulama", "kod"
     )
     
+    // Built-in keywords match at word starts so "ara" no longer hits "karar",
+    // while Turkish suffixes ("kazan" -> "kazanın") still match
+    private val builtInKeywords: List<Keyword> =
+        junkKeywords.map { Keyword(it, KeywordList.JUNK, MatchMode.WORD_PREFIX) } +
+        promotionKeywords.map { Keyword(it, KeywordList.PROMOTION, MatchMode.WORD_PREFIX) } +
+        transactionKeywords.map { Keyword(it, KeywordList.TRANSACTION, MatchMode.WORD_PREFIX) } +
+        notificationKeywords.map { Keyword(it, KeywordList.NOTIFICATION, MatchMode.WORD_PREFIX) }
+    
     // Regex patterns for junk detection
     private val junkRegexPatterns = listOf(
         "(?i)\\b(win|won|winner)\\s+(\\$|€|₺|prize|ödül)",
@@ -67,72 +82,99 @@ object CustomFilter {
     // Compiled regex patterns for performance
     private val compiledJunkRegex = junkRegexPatterns.map { Regex(it) }
     
+    // More aggressive patterns for attack mode
+    private val attackPatterns = listOf(
+        "(?i)\\b\\d+\\s?(tl|₺|usd|eur)", // Any money amount
+        "(?i)\\b(hediye|gift|bonus|ödül|prize)", // Any gift/prize mention
+        "(?i)\\b(kazan|win|earn)", // Any win/earn mention
+        "(?i)\\b(tıkla|click|ara|call)", // Any action request
+        "(?i)\\b(sınırlı|limited|son|last|acil|urgent)", // Urgency
+        "(?i)\\b\\d{4}\\d*\\b" // 4+ digit numbers (suspicious codes)
+    )
+    
+    private val compiledAttackRegex = attackPatterns.map { Regex(it) }
+    
     fun filterMessage(
         message: String, 
         sender: String,
-        isUnderAttackMode: Boolean = false,
-        customKeywords: List<String> = emptyList(),
-        customRegexPatterns: List<String> = emptyList()
+        rules: CompiledRuleSet = CompiledRuleSet.EMPTY
+    ): FilterResult {
+        return filterMessage(MessageContext.of(message, sender), rules)
+    }
+    
+    fun filterMessage(
+        message: MessageContext,
+        rules: CompiledRuleSet = CompiledRuleSet.EMPTY
     ): FilterResult {
-        
-        val messageText = message.lowercase()
-        val senderText = sender.lowercase()
         
         // Under Attack Mode - more aggressive filtering
-        if (isUnderAttackMode) {
-            val attackModeResult = checkUnderAttackMode(messageText, senderText)
+        if (rules.isUnderAttackMode) {
+            val attackModeResult = checkUnderAttackMode(message)
             if (attackModeResult.isBlocked) {
                 return attackModeResult
             }
         }
         
+        // One pass over the message finds every built-in and custom keyword
+        val keywordHits = rules.keywordMatcher.findAll(message.plain)
+        
         // Check custom user patterns first
-        val customResult = checkCustomFilters(messageText, customKeywords, customRegexPatterns)
+        val customResult = checkCustomFilters(message, keywordHits, rules.customRegex)
         if (customResult.isBlocked) {
             return customResult
         }
         
         // Check built-in junk patterns
-        val junkResult = checkJunkPatterns(messageText, senderText)
+        val junkResult = checkJunkPatterns(message, keywordHits)
         if (junkResult.isBlocked) {
             return junkResult
         }
         
         // Categorize non-junk messages
-        return categorizeMessage(messageText)
+        return categorizeMessage(keywordHits)
     }
     
-    private fun checkUnderAttackMode(message: String, sender: String): FilterResult {
-        // More aggressive patterns for attack mode
-        val attackPatterns = listOf(
-            "(?i)\\b\\d+\\s?(tl|₺|usd|eur)", // Any money amount
-            "(?i)\\b(hediye|gift|bonus|ödül|prize)", // Any gift/prize mention
-            "(?i)\\b(kazan|win|earn)", // Any win/earn mention
-            "(?i)\\b(tıkla|click|ara|call)", // Any action request
-            "(?i)\\b(sınırlı|limited|son|last|acil|urgent)", // Urgency
-            "(?i)\\b\\d{4}\\d*\\b" // 4+ digit numbers (suspicious codes)
+    /**
+     * Compiles the built-in keyword lists together with [customKeywords] into
+     * one automaton. Called when a [CompiledRuleSet] is built.
+     */
+    internal fun compileKeywords(customKeywords: List<String>): KeywordMatcher {
+        return KeywordMatcher.compile(
+            customKeywords.map { Keyword(it, KeywordList.CUSTOM) } + builtInKeywords
         )
-        
-        for (pattern in attackPatterns) {
-            if (Regex(pattern).containsMatchIn(message)) {
-                return FilterResult(
-                    isBlocked = true,
-                    category = MessageCategory.JUNK,
-                    filterType = FilterType.UNDER_ATTACK_MODE,
-                    confidence = 0.9f,
-                    matchedRule = pattern
-                )
-            }
+    }
+    
+    /**
+     * The first of [patterns] found in [message]. Patterns run on the folded
+     * text, where emails and links are as sent, and on the plain text too
+     * when undoing obfuscation changed it.
+     */
+    private fun firstMatch(patterns: List<Regex>, message: MessageContext): Regex? {
+        val plain = message.plain.takeIf { it != message.folded }
+        return patterns.firstOrNull {
+            it.containsMatchIn(message.folded) || (plain != null && it.containsMatchIn(plain))
+        }
+    }
+    
+    private fun checkUnderAttackMode(message: MessageContext): FilterResult {
+        firstMatch(compiledAttackRegex, message)?.let { regex ->
+            return FilterResult(
+                isBlocked = true,
+                category = MessageCategory.JUNK,
+                filterType = FilterType.UNDER_ATTACK_MODE,
+                confidence = 0.9f,
+                matchedRule = regex.pattern
+            )
         }
         
         // Block unknown/suspicious senders in attack mode
-        if (sender.matches(Regex("\\d+")) && sender.length > 4) {
+        if (message.isNumericSender) {
             return FilterResult(
                 isBlocked = true,
                 category = MessageCategory.JUNK,
                 filterType = FilterType.UNDER_ATTACK_MODE,
                 confidence = 0.8f,
-                matchedRule = "suspicious_sender"
+                matchedRule = SUSPICIOUS_SENDER_RULE
             )
         }
         
@@ -140,80 +182,67 @@ object CustomFilter {
     }
     
     private fun checkCustomFilters(
-        message: String, 
-        customKeywords: List<String>, 
-        customRegexPatterns: List<String>
+        message: MessageContext, 
+        keywordHits: KeywordHits, 
+        customRegex: List<Regex>
     ): FilterResult {
         
         // Check custom keywords
-        for (keyword in customKeywords) {
-            if (message.contains(keyword.lowercase())) {
-                return FilterResult(
-                    isBlocked = true,
-                    category = MessageCategory.JUNK,
-                    filterType = FilterType.KEYWORD_FILTER,
-                    confidence = 1.0f,
-                    matchedRule = keyword
-                )
-            }
+        keywordHits.firstMatch(KeywordList.CUSTOM)?.let { keyword ->
+            return FilterResult(
+                isBlocked = true,
+                category = MessageCategory.JUNK,
+                filterType = FilterType.KEYWORD_FILTER,
+                confidence = 1.0f,
+                matchedRule = keyword
+            )
         }
         
         // Check custom regex patterns
-        for (pattern in customRegexPatterns) {
-            try {
-                if (Regex(pattern, RegexOption.IGNORE_CASE).containsMatchIn(message)) {
-                    return FilterResult(
-                        isBlocked = true,
-                        category = MessageCategory.JUNK,
-                        filterType = FilterType.REGEX_FILTER,
-                        confidence = 1.0f,
-                        matchedRule = pattern
-                    )
-                }
-            } catch (e: Exception) {
-                // Invalid regex pattern - skip
-                continue
-            }
+        firstMatch(customRegex, message)?.let { regex ->
+            return FilterResult(
+                isBlocked = true,
+                category = MessageCategory.JUNK,
+                filterType = FilterType.REGEX_FILTER,
+                confidence = 1.0f,
+                matchedRule = regex.pattern
+            )
         }
         
         return FilterResult(false, MessageCategory.GENERAL, FilterType.USER_RULE)
     }
     
-    private fun checkJunkPatterns(message: String, sender: String): FilterResult {
+    private fun checkJunkPatterns(message: MessageContext, keywordHits: KeywordHits): FilterResult {
         
         // Check junk keywords
-        for (keyword in junkKeywords) {
-            if (message.contains(keyword)) {
-                return FilterResult(
-                    isBlocked = true,
-                    category = MessageCategory.JUNK,
-                    filterType = FilterType.KEYWORD_FILTER,
-                    confidence = 0.85f,
-                    matchedRule = keyword
-                )
-            }
+        keywordHits.firstMatch(KeywordList.JUNK)?.let { keyword ->
+            return FilterResult(
+                isBlocked = true,
+                category = MessageCategory.JUNK,
+                filterType = FilterType.KEYWORD_FILTER,
+                confidence = 0.85f,
+                matchedRule = keyword
+            )
         }
         
         // Check junk regex patterns
-        for (regex in compiledJunkRegex) {
-            if (regex.containsMatchIn(message)) {
-                return FilterResult(
-                    isBlocked = true,
-                    category = MessageCategory.JUNK,
-                    filterType = FilterType.REGEX_FILTER,
-                    confidence = 0.9f,
-                    matchedRule = regex.pattern
-                )
-            }
+        firstMatch(compiledJunkRegex, message)?.let { regex ->
+            return FilterResult(
+                isBlocked = true,
+                category = MessageCategory.JUNK,
+                filterType = FilterType.REGEX_FILTER,
+                confidence = 0.9f,
+                matchedRule = regex.pattern
+            )
         }
         
         return FilterResult(false, MessageCategory.GENERAL, FilterType.KEYWORD_FILTER)
     }
     
-    private fun categorizeMessage(message: String): FilterResult {
+    private fun categorizeMessage(keywordHits: KeywordHits): FilterResult {
         
         // Check for transaction messages
-        val transactionScore = transactionKeywords.count { message.contains(it) }
+        val transactionScore = keywordHits.count(KeywordList.TRANSACTION)
         if (transactionScore >= 1) {
             return FilterResult(
                 isBlocked = false,
@@ -224,7 +253,7 @@ object CustomFilter {
         }
         
         // Check for promotional messages
-        val promotionScore = promotionKeywords.count { message.contains(it) }
+        val promotionScore = keywordHits.count(KeywordList.PROMOTION)
         if (promotionScore >= 1) {
             return FilterResult(
                 isBlocked = false,
@@ -235,7 +264,7 @@ object CustomFilter {
         }
         
         // Check for notification messages
-        val notificationScore = notificationKeywords.count { message.contains(it) }
+        val notificationScore = keywordHits.count(KeywordList.NOTIFICATION)
         if (notificationScore >= 1) {
             return FilterResult(
                 isBlocked = false,
@@ -0,0 +1,222 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.classifier.MessageContext
+import com.ovehbe.junkboy.database.FilterType
+import com.ovehbe.junkboy.database.MessageCategory
+import java.util.concurrent.atomic.AtomicLongArray
+
+/** Steps of the [FilterPipeline], in the order they run. */
+enum class PipelineStage {
+    ALLOWLIST,
+    SENDER_RULES,
+    RECEIVER_HINT,
+    SIGNATURE,
+    REPUTATION,
+    RULES,
+    MODEL,
+    MERGE
+}
+
+/**
+ * The user's filter settings, read once per call to [FilterPipeline.process]
+ * so every message in a batch is judged by the same ones.
+ */
+data class PipelineSettings(
+    val rules: CompiledRuleSet,
+    val isRuleFilteringEnabled: Boolean,
+    val isMlEnabled: Boolean,
+    /** Null when cascade mode is off and the model runs for every message. */
+    val cascadeBand: UncertaintyBand?,
+    /** Null when near-duplicate detection is off. */
+    val nearDuplicateDistance: Int?,
+    /** The user's settings while these are cut down to shed load, see [LoadShedder.degrade]. */
+    val degradedFrom: PipelineSettings? = null
+) {
+
+    val isFilteringEnabled: Boolean
+        get() = isRuleFilteringEnabled || isMlEnabled
+
+    /** The user's settings, whether or not load is being shed. */
+    val full: PipelineSettings
+        get() = degradedFrom ?: this
+}
+
+/**
+ * What the stages have found out about one message so far. Stages fill in
+ * their own field and the merge step turns them into the [verdict].
+ */
+class FilterState(
+    val message: MessageContext,
+    /** The receiver already flagged the message as obvious junk. */
+    val isReceiverFlagged: Boolean = false
+) {
+
+    var isAllowed = false
+    /** Verdict of a block rule matching the sender. */
+    var senderRule: FilterResult? = null
+    var receiverHint: FilterResult? = null
+    /** Verdict of the same or a nearly identical earlier message. */
+    var signature: FilterResult? = null
+    /** Verdict the sender's history vouches for. */
+    var reputation: FilterResult? = null
+    var ruleResult: FilterResult? = null
+    var mlResult: FilterResult? = null
+
+    // Where the signature stage looked the message up, so the verdict can be stored there;
+    // null while shedding load, when verdicts are not remembered
+    internal var cacheGeneration: Long? = null
+
+    lateinit var verdict: FilterResult
+        internal set
+
+    /** The tier that settled the message; null if no filtering method is enabled. */
+    var tier: CascadeTier? = null
+        internal set
+
+    /** True once a cheap stage has settled the message, so later stages skip it. */
+    val isSettled: Boolean
+        get() = isAllowed || senderRule != null || receiverHint != null || signature != null || reputation != null
+
+    /**
+     * True if the rules or the model reached the verdict from the body, so it
+     * holds for the same text from any sender. Verdicts about the sender do
+     * not, including attack mode's block of numeric senders.
+     */
+    val isJudgedOnContent: Boolean
+        get() = (tier == CascadeTier.RULES || tier == CascadeTier.MODEL) &&
+            senderRule == null && receiverHint == null &&
+            ruleResult?.matchedRule != CustomFilter.SUSPICIOUS_SENDER_RULE
+
+    /**
+     * The verdict generation a block of this message may answer its
+     * near-duplicates under, or null if it was not blocked on the text with
+     * the full settings. Saved with the message so the index can be rebuilt
+     * from exactly the blocks the live path would have added.
+     */
+    val nearDuplicateGeneration: Long?
+        get() = if (verdict.isBlocked && isJudgedOnContent) cacheGeneration else null
+}
+
+/** One step of the [FilterPipeline]. Stages see whole batches so the model can run once per batch. */
+interface FilterStage {
+
+    val stage: PipelineStage
+
+    suspend fun process(batch: List<FilterState>, settings: PipelineSettings)
+
+    /** Called once every message in [batch] has its verdict. */
+    suspend fun complete(batch: List<FilterState>, settings: PipelineSettings) {}
+}
+
+/** Time spent in each [PipelineStage] and how many messages went through it. */
+class StageTimings {
+
+    private val nanos = AtomicLongArray(PipelineStage.values().size)
+    private val messages = AtomicLongArray(PipelineStage.values().size)
+
+    fun record(stage: PipelineStage, elapsedNanos: Long, messageCount: Int) {
+        nanos.addAndGet(stage.ordinal, elapsedNanos)
+        messages.addAndGet(stage.ordinal, messageCount.toLong())
+    }
+
+    fun nanosOf(stage: PipelineStage): Long = nanos.get(stage.ordinal)
+
+    /** Average time per message in [stage], in microseconds; 0 before the first message. */
+    fun averageMicros(stage: PipelineStage): Float {
+        val count = messages.get(stage.ordinal)
+        return if (count > 0) nanos.get(stage.ordinal) / 1000f / count else 0f
+    }
+
+    fun reset() {
+        for (i in 0 until nanos.length()) {
+            nanos.set(i, 0L)
+            messages.set(i, 0L)
+        }
+    }
+}
+
+/**
+ * The one path every message takes to its verdict, whether it arrives live,
+ * comes from the inbox import or is typed into the test screen. [stages] run
+ * in order on the whole batch and a single decision table merges what they
+ * found. Time spent per stage is added to [timings].
+ */
+class FilterPipeline(
+    private val stages: List<FilterStage>,
+    /** Count the settling tier in [ClassifierCascade]; only for live traffic. */
+    private val recordsTiers: Boolean = false
+) {
+
+    val timings = StageTimings()
+
+    /** Runs [batch] through every stage and sets each message's verdict. Also records into [trace]. */
+    suspend fun process(batch: List<FilterState>, settings: PipelineSettings, trace: StageTimings? = null) {
+        if (batch.isEmpty()) return
+
+        for (stage in stages) {
+            val start = System.nanoTime()
+            stage.process(batch, settings)
+            record(stage.stage, System.nanoTime() - start, batch.size, trace)
+        }
+
+        val start = System.nanoTime()
+        for (state in batch) {
+            merge(state)
+            if (recordsTiers) state.tier?.let { ClassifierCascade.record(it) }
+        }
+        record(PipelineStage.MERGE, System.nanoTime() - start, batch.size, trace)
+
+        for (stage in stages) {
+            val completeStart = System.nanoTime()
+            stage.complete(batch, settings)
+            record(stage.stage, System.nanoTime() - completeStart, 0, trace)
+        }
+    }
+
+    suspend fun process(state: FilterState, settings: PipelineSettings, trace: StageTimings? = null): FilterResult {
+        process(listOf(state), settings, trace)
+        return state.verdict
+    }
+
+    private fun record(stage: PipelineStage, elapsedNanos: Long, messageCount: Int, trace: StageTimings?) {
+        timings.record(stage, elapsedNanos, messageCount)
+        trace?.record(stage, elapsedNanos, messageCount)
+    }
+
+    private class Decision(
+        val tier: CascadeTier?,
+        val applies: (FilterState) -> Boolean,
+        val verdict: (FilterState) -> FilterResult
+    )
+
+    companion object {
+
+        /** Verdict for messages that are not filtered: allowed senders, or every filter off. */
+        val UNFILTERED = FilterResult(
+            isBlocked = false,
+            category = MessageCategory.GENERAL,
+            filterType = FilterType.KEYWORD_FILTER,
+            confidence = 0.0f
+        )
+
+        // First matching row wins
+        private val decisionTable = listOf(
+            Decision(CascadeTier.ALLOWLIST, { it.isAllowed }, { UNFILTERED }),
+            Decision(CascadeTier.RULES, { it.senderRule != null }, { it.senderRule!! }),
+            Decision(CascadeTier.RULES, { it.receiverHint != null }, { it.receiverHint!! }),
+            Decision(CascadeTier.SIGNATURE, { it.signature != null }, { it.signature!! }),
+            Decision(CascadeTier.REPUTATION, { it.reputation != null }, { it.reputation!! }),
+            // ML has precedence, rules can only enhance confidence
+            Decision(CascadeTier.MODEL, { it.mlResult != null }, { VerdictMerger.merge(it.mlResult!!, it.ruleResult) }),
+            // ML disabled or skipped by the cascade
+            Decision(CascadeTier.RULES, { it.ruleResult != null }, { it.ruleResult!! }),
+            Decision(null, { true }, { UNFILTERED })
+        )
+
+        internal fun merge(state: FilterState) {
+            val decision = decisionTable.first { it.applies(state) }
+            state.verdict = decision.verdict(state)
+            state.tier = decision.tier
+        }
+    }
+}
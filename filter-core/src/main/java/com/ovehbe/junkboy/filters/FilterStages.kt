@@ -0,0 +1,216 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.classifier.MessageContext
+import com.ovehbe.junkboy.database.FilterType
+import com.ovehbe.junkboy.database.MessageCategory
+
+/** Classifies messages with the ML model, a whole batch per call. */
+interface BatchClassifier {
+    suspend fun classifyBatch(messages: List<MessageContext>): List<FilterResult>
+}
+
+/** Settles messages from senders the user allowed. */
+class AllowlistStage(
+    private val isAllowed: suspend (sender: String) -> Boolean
+) : FilterStage {
+
+    override val stage = PipelineStage.ALLOWLIST
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        for (state in batch) {
+            state.isAllowed = isAllowed(state.message.sender)
+        }
+    }
+}
+
+/**
+ * Applies the user's allow and block rules by sender number or range, so
+ * whole spam-operator ranges never reach the content stages.
+ */
+object SenderRuleStage : FilterStage {
+
+    override val stage = PipelineStage.SENDER_RULES
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        val rules = settings.rules.senderRules
+        if (rules.size == 0) return
+        for (state in batch) {
+            if (state.isSettled) continue
+            val rule = rules.match(state.message.sender) ?: continue
+            when (rule.action) {
+                SenderAction.ALLOW -> state.isAllowed = true
+                SenderAction.BLOCK -> if (settings.isFilteringEnabled) state.senderRule = blockedBy(rule)
+            }
+        }
+    }
+
+    private fun blockedBy(rule: SenderRule) = FilterResult(
+        isBlocked = true,
+        category = MessageCategory.JUNK,
+        filterType = FilterType.USER_RULE,
+        confidence = 1.0f,
+        matchedRule = "sender:${rule.pattern}"
+    )
+}
+
+/** Turns the receiver's obvious-junk flag into a verdict. */
+object ReceiverHintStage : FilterStage {
+
+    val OBVIOUS_JUNK = FilterResult(
+        isBlocked = true,
+        category = MessageCategory.JUNK,
+        filterType = FilterType.KEYWORD_FILTER,
+        confidence = 0.95f,
+        matchedRule = "obvious_junk_receiver"
+    )
+
+    override val stage = PipelineStage.RECEIVER_HINT
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        for (state in batch) {
+            if (state.isReceiverFlagged && !state.isSettled) state.receiverHint = OBVIOUS_JUNK
+        }
+    }
+}
+
+/**
+ * Answers repeats of earlier messages from the [cache] and close variants of
+ * recently blocked ones from the near-duplicate index, and stores every new
+ * verdict the content stages reached in the cache. Both only answer with
+ * verdicts of the current generation.
+ */
+class SignatureStage(
+    private val cache: VerdictCache,
+    /** The index of blocks judged under a generation, rebuilt when the generation changes. */
+    private val nearDuplicates: suspend (generation: Long) -> NearDuplicateIndex,
+    /** Version of the model verdicts will be made with; may wait for it to load. */
+    private val modelVersion: suspend (PipelineSettings) -> String?
+) : FilterStage {
+
+    override val stage = PipelineStage.SIGNATURE
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        if (batch.all { it.isSettled }) return
+        // Shedding load must not move the cache to another generation and back, dropping it twice
+        val full = settings.full
+        val generation = VerdictCache.generationOf(
+            full.rules,
+            modelVersion(full),
+            full.isMlEnabled,
+            full.isRuleFilteringEnabled,
+            full.cascadeBand
+        )
+        // Verdicts of the cut-down settings are used but not cached under the full ones
+        val isCaching = settings.degradedFrom == null
+        val distance = settings.nearDuplicateDistance
+        val index = if (distance != null && settings.isFilteringEnabled) nearDuplicates(generation) else null
+        val now = System.currentTimeMillis()
+
+        for (state in batch) {
+            if (state.isSettled) continue
+            if (isCaching) state.cacheGeneration = generation
+            val key = VerdictCache.keyOf(state.message)
+            state.signature = cache.get(generation, key)
+            if (state.signature == null && index != null && distance != null) {
+                state.signature = index.findNear(state.message, distance, now)
+                    ?.copy(matchedRule = "near_duplicate")
+                    ?.also { if (isCaching) cache.put(generation, key, it) }
+            }
+        }
+    }
+
+    override suspend fun complete(batch: List<FilterState>, settings: PipelineSettings) {
+        if (settings.degradedFrom != null) return
+        for (state in batch) {
+            val generation = state.cacheGeneration ?: continue
+            // Keyed by the body, so a verdict about one sender would answer its spoofers too
+            if (state.isJudgedOnContent) {
+                cache.put(generation, VerdictCache.keyOf(state.message), state.verdict)
+            }
+        }
+        cache.flush()
+    }
+}
+
+/**
+ * Settles messages from senders whose history is consistent, and adds every
+ * verdict reached from the content to the sender's history.
+ */
+class ReputationStage(
+    private val reputation: suspend () -> SenderReputation,
+    /** Version of the model verdicts will be made with; may wait for it to load. */
+    private val modelVersion: suspend (PipelineSettings) -> String?,
+    /** Saves the histories a batch changed. */
+    private val persist: suspend (List<SenderHistory>) -> Unit,
+    /** Drops the saved histories once the rules or the model changed, and saves the new generation. */
+    private val reset: suspend (generation: Long) -> Unit
+) : FilterStage {
+
+    override val stage = PipelineStage.REPUTATION
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        if (!settings.isFilteringEnabled || batch.all { it.isSettled }) return
+        val senders = reputationFor(settings)
+        for (state in batch) {
+            if (!state.isSettled && state.message.sender.isNotEmpty()) {
+                state.reputation = senders.verdictFor(state.message.sender)
+            }
+        }
+    }
+
+    override suspend fun complete(batch: List<FilterState>, settings: PipelineSettings) {
+        // Rules-only verdicts made while shedding load would skew the histories
+        if (!settings.isFilteringEnabled || settings.degradedFrom != null) return
+        // Only verdicts judged on content; recording its own would let a reputation feed itself
+        val judged = batch.filter {
+            it.message.sender.isNotEmpty() && (it.isJudgedOnContent || it.tier == CascadeTier.SIGNATURE)
+        }
+        if (judged.isEmpty()) return
+        val senders = reputationFor(settings)
+        val now = System.currentTimeMillis()
+        persist(judged.map { senders.record(it.message.sender, it.verdict, now) })
+    }
+
+    private suspend fun reputationFor(settings: PipelineSettings): SenderReputation {
+        val senders = reputation()
+        val full = settings.full
+        val generation = SenderReputation.generationOf(
+            full.rules,
+            if (full.isMlEnabled) modelVersion(full) else null
+        )
+        if (senders.ensureGeneration(generation)) reset(generation)
+        return senders
+    }
+}
+
+/** Runs the keyword automaton and patterns of [CustomFilter]. */
+object RuleStage : FilterStage {
+
+    override val stage = PipelineStage.RULES
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        if (!settings.isRuleFilteringEnabled) return
+        for (state in batch) {
+            if (!state.isSettled) state.ruleResult = CustomFilter.filterMessage(state.message, settings.rules)
+        }
+    }
+}
+
+/**
+ * Runs the model on the messages nothing cheaper settled, and in cascade
+ * mode only on those the rules are unsure about.
+ */
+class ModelStage(private val classifier: BatchClassifier) : FilterStage {
+
+    override val stage = PipelineStage.MODEL
+
+    override suspend fun process(batch: List<FilterState>, settings: PipelineSettings) {
+        if (!settings.isMlEnabled) return
+        val toClassify = batch.filter {
+            !it.isSettled && !ClassifierCascade.isDecisive(it.ruleResult, settings.cascadeBand)
+        }
+        if (toClassify.isEmpty()) return
+        val results = classifier.classifyBatch(toClassify.map { it.message })
+        toClassify.forEachIndexed { index, state -> state.mlResult = results[index] }
+    }
+}
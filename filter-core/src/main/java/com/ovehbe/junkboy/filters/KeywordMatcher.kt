@@ -0,0 +1,244 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.classifier.Deobfuscator
+import com.ovehbe.junkboy.classifier.MessageContext
+
+/**
+ * Keyword lists a [KeywordMatcher] can report hits for.
+ */
+enum class KeywordList {
+    CUSTOM,
+    JUNK,
+    PROMOTION,
+    TRANSACTION,
+    NOTIFICATION
+}
+
+/**
+ * How a keyword must sit inside the text to count as a hit.
+ */
+enum class MatchMode {
+    // Anywhere, like String.contains
+    SUBSTRING,
+    // At the start of a word, so Turkish suffixes still match ("kazan" -> "kazandınız")
+    WORD_PREFIX,
+    // Whole word only
+    WHOLE_WORD
+}
+
+data class Keyword(
+    val text: String,
+    val list: KeywordList,
+    val mode: MatchMode = MatchMode.SUBSTRING
+)
+
+/**
+ * Aho-Corasick automaton over all keyword lists.
+ *
+ * Every keyword is found in a single pass over the text, so the cost of a scan
+ * depends on the message length and not on how many keywords are configured.
+ * Keywords are matched case-sensitively against their [Deobfuscator] form;
+ * callers pass [MessageContext.plain] text. Dotted and dotless i match each other,
+ * so "kazandınız" also finds "KAZANDINIZ" and the ASCII spelling "kazandiniz".
+ */
+class KeywordMatcher private constructor(
+    private val keywords: List<Keyword>,
+    private val keywordLengths: IntArray,
+    private val edgeStart: IntArray,
+    private val edgeChars: CharArray,
+    private val edgeTargets: IntArray,
+    private val fail: IntArray,
+    private val outputStart: IntArray,
+    private val outputs: IntArray
+) {
+
+    val size: Int get() = keywords.size
+
+    /**
+     * Scans [text] once and records the first hit and the number of distinct
+     * hits for every keyword list.
+     */
+    fun findAll(text: CharSequence): KeywordHits {
+        val hits = KeywordHits(keywords)
+        var state = 0
+        for (i in 0 until text.length) {
+            state = step(state, matchChar(text[i]))
+            for (k in outputStart[state] until outputStart[state + 1]) {
+                val index = outputs[k]
+                if (hits.isMatched(index)) continue
+                val start = i - keywordLengths[index] + 1
+                if (isAtBoundary(text, start, i, keywords[index].mode)) {
+                    hits.record(index)
+                }
+            }
+        }
+        return hits
+    }
+
+    /** The automaton state after reading [c] in state [from]; the start state is 0. */
+    internal fun next(from: Int, c: Char): Int = step(from, matchChar(c))
+
+    /** Indices of the keywords that end in [state] are `outputAt(outputStart(state) until outputEnd(state))`. */
+    internal fun outputStart(state: Int): Int = outputStart[state]
+
+    internal fun outputEnd(state: Int): Int = outputStart[state + 1]
+
+    internal fun outputAt(position: Int): Int = outputs[position]
+
+    private fun step(from: Int, c: Char): Int {
+        var state = from
+        while (true) {
+            val next = child(state, c)
+            if (next >= 0) return next
+            if (state == 0) return 0
+            state = fail[state]
+        }
+    }
+
+    private fun child(state: Int, c: Char): Int {
+        var low = edgeStart[state]
+        var high = edgeStart[state + 1] - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val midChar = edgeChars[mid]
+            when {
+                midChar < c -> low = mid + 1
+                midChar > c -> high = mid - 1
+                else -> return edgeTargets[mid]
+            }
+        }
+        return -1
+    }
+
+    private fun matchChar(c: Char): Char = if (c == 'ı') 'i' else c
+
+    private fun isAtBoundary(text: CharSequence, start: Int, end: Int, mode: MatchMode): Boolean {
+        if (mode == MatchMode.SUBSTRING) return true
+        if (start > 0 && text[start - 1].isLetterOrDigit()) return false
+        if (mode == MatchMode.WHOLE_WORD && end + 1 < text.length && text[end + 1].isLetterOrDigit()) {
+            return false
+        }
+        return true
+    }
+
+    companion object {
+
+        fun compile(keywords: List<Keyword>): KeywordMatcher {
+            val usable = keywords.filter { it.text.isNotEmpty() }
+            val patterns = usable.map { Deobfuscator.deobfuscate(it.text).replace('ı', 'i') }
+
+            // Build the trie
+            val children = mutableListOf(sortedMapOf<Char, Int>())
+            val nodeOutputs = mutableListOf(mutableListOf<Int>())
+            patterns.forEachIndexed { index, pattern ->
+                var state = 0
+                for (c in pattern) {
+                    state = children[state].getOrPut(c) {
+                        children.add(sortedMapOf())
+                        nodeOutputs.add(mutableListOf())
+                        children.size - 1
+                    }
+                }
+                nodeOutputs[state].add(index)
+            }
+
+            // Failure links in BFS order; outputs of the fallback state are inherited
+            val nodeCount = children.size
+            val fail = IntArray(nodeCount)
+            val queue = ArrayDeque<Int>()
+            for (next in children[0].values) {
+                queue.add(next)
+            }
+            while (queue.isNotEmpty()) {
+                val state = queue.removeFirst()
+                for ((c, next) in children[state]) {
+                    var fallback = fail[state]
+                    while (fallback != 0 && children[fallback][c] == null) {
+                        fallback = fail[fallback]
+                    }
+                    val target = children[fallback][c]
+                    fail[next] = if (target != null && target != next) target else 0
+                    nodeOutputs[next].addAll(nodeOutputs[fail[next]])
+                    queue.add(next)
+                }
+            }
+
+            // Flatten into primitive arrays
+            val edgeStart = IntArray(nodeCount + 1)
+            val outputStart = IntArray(nodeCount + 1)
+            for (state in 0 until nodeCount) {
+                edgeStart[state + 1] = edgeStart[state] + children[state].size
+                outputStart[state + 1] = outputStart[state] + nodeOutputs[state].size
+            }
+            val edgeChars = CharArray(edgeStart[nodeCount])
+            val edgeTargets = IntArray(edgeStart[nodeCount])
+            val outputs = IntArray(outputStart[nodeCount])
+            for (state in 0 until nodeCount) {
+                var edge = edgeStart[state]
+                for ((c, next) in children[state]) {
+                    edgeChars[edge] = c
+                    edgeTargets[edge] = next
+                    edge++
+                }
+                // Keep outputs in keyword order so earlier list entries are recorded first
+                nodeOutputs[state].sorted().forEachIndexed { offset, index ->
+                    outputs[outputStart[state] + offset] = index
+                }
+            }
+
+            return KeywordMatcher(
+                keywords = usable,
+                keywordLengths = IntArray(patterns.size) { patterns[it].length },
+                edgeStart = edgeStart,
+                edgeChars = edgeChars,
+                edgeTargets = edgeTargets,
+                fail = fail,
+                outputStart = outputStart,
+                outputs = outputs
+            )
+        }
+    }
+}
+
+/**
+ * Result of a [KeywordMatcher.findAll] scan. Sized by the hits rather than
+ * the keywords, as a message matches only a handful of them.
+ */
+class KeywordHits internal constructor(private val keywords: List<Keyword>) {
+
+    // Indices of the distinct keywords found so far, scanned linearly
+    private var matched = IntArray(INITIAL_CAPACITY)
+    private var matchedCount = 0
+    private val firstIndex = IntArray(LIST_COUNT) { -1 }
+    private val counts = IntArray(LIST_COUNT)
+
+    internal fun isMatched(index: Int): Boolean {
+        for (i in 0 until matchedCount) {
+            if (matched[i] == index) return true
+        }
+        return false
+    }
+
+    internal fun record(index: Int) {
+        if (matchedCount == matched.size) matched = matched.copyOf(matchedCount * 2)
+        matched[matchedCount++] = index
+        val list = keywords[index].list.ordinal
+        counts[list]++
+        // Keywords are indexed in list order, so the lowest index is the first list entry
+        if (firstIndex[list] == -1 || index < firstIndex[list]) {
+            firstIndex[list] = index
+        }
+    }
+
+    /** The earliest keyword of [list] (in list order) that occurs in the text. */
+    fun firstMatch(list: KeywordList): String? =
+        firstIndex[list.ordinal].takeIf { it >= 0 }?.let { keywords[it].text }
+
+    /** Number of keyword entries of [list] that occur in the text. */
+    fun count(list: KeywordList): Int = counts[list.ordinal]
+
+    private companion object {
+        const val INITIAL_CAPACITY = 8
+        val LIST_COUNT = KeywordList.values().size
+    }
+}
@@ -0,0 +1,67 @@
+package com.ovehbe.junkboy.filters
+
+/**
+ * Queue depth and waiting time at which the filtering path starts shedding
+ * load. It recovers only once both are back under a quarter of these, so a
+ * flood that hovers around a threshold does not flip the mode per batch.
+ */
+data class LoadThresholds(val queueDepth: Int, val latencyMillis: Long) {
+
+    init {
+        require(queueDepth > 0 && latencyMillis > 0) { "Invalid thresholds $queueDepth, $latencyMillis ms" }
+    }
+
+    val recoveryQueueDepth: Int
+        get() = queueDepth / 4
+
+    val recoveryLatencyMillis: Long
+        get() = latencyMillis / 4
+
+    companion object {
+        val DEFAULT = LoadThresholds(queueDepth = 32, latencyMillis = 2_000L)
+    }
+}
+
+/**
+ * Decides when a flood is too much for the full pipeline. While shedding,
+ * the caller drops to the cheap path (rules only, see [degrade]) so every
+ * message still gets its verdict in bounded time.
+ */
+class LoadShedder(@Volatile var thresholds: LoadThresholds = LoadThresholds.DEFAULT) {
+
+    @Volatile
+    var isShedding = false
+        private set
+
+    /**
+     * Takes the load seen by the latest batch: [queueDepth] messages still
+     * waiting behind it, and the [latencyMillis] its oldest message waited
+     * before being processed. Returns true if the mode changed.
+     */
+    @Synchronized
+    fun update(queueDepth: Int, latencyMillis: Long): Boolean {
+        val limits = thresholds
+        val wasShedding = isShedding
+        isShedding = if (wasShedding) {
+            queueDepth > limits.recoveryQueueDepth || latencyMillis > limits.recoveryLatencyMillis
+        } else {
+            queueDepth >= limits.queueDepth || latencyMillis >= limits.latencyMillis
+        }
+        return isShedding != wasShedding
+    }
+
+    companion object {
+
+        /**
+         * [settings] for the cheap path: the rules alone, without the model.
+         * The rules stay on if only the model was, so a flood is never let
+         * through unfiltered. The user's settings are kept as
+         * [PipelineSettings.degradedFrom], so caches keep their generation.
+         */
+        fun degrade(settings: PipelineSettings): PipelineSettings = settings.copy(
+            isRuleFilteringEnabled = settings.isFilteringEnabled,
+            isMlEnabled = false,
+            degradedFrom = settings.full
+        )
+    }
+}
@@ -0,0 +1,153 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.classifier.MessageContext
+
+/**
+ * Index of recently blocked message bodies by 64-bit SimHash, so variants of
+ * a campaign that differ in a name, a code or a short link reuse the verdict
+ * of the first copy instead of being classified again.
+ *
+ * Holds at most [maxEntries] messages no older than [maxAgeMillis] in a ring
+ * buffer of primitive arrays. With a few thousand entries a linear scan with
+ * popcount is a couple of microseconds, cheaper than maintaining LSH bands.
+ */
+class NearDuplicateIndex(
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val maxAgeMillis: Long = DEFAULT_MAX_AGE_MILLIS
+) {
+
+    private val fingerprints = LongArray(maxEntries)
+    private val addedAt = LongArray(maxEntries)
+    private val messageIds = LongArray(maxEntries)
+    private val verdicts = arrayOfNulls<FilterResult>(maxEntries)
+    private var next = 0
+    private var count = 0
+
+    @get:Synchronized
+    val size: Int
+        get() = count
+
+    /**
+     * Adds a blocked message. Messages too short to fingerprint reliably are
+     * ignored. The oldest entry is replaced once the index is full.
+     */
+    @Synchronized
+    fun add(messageId: Long, message: MessageContext, verdict: FilterResult, timestamp: Long) {
+        val fingerprint = fingerprintOf(message)
+        if (fingerprint == NO_FINGERPRINT) return
+        fingerprints[next] = fingerprint
+        addedAt[next] = timestamp
+        messageIds[next] = messageId
+        verdicts[next] = verdict
+        next = (next + 1) % maxEntries
+        if (count < maxEntries) count++
+    }
+
+    /**
+     * The verdict of the closest indexed message within [maxDistance] bits
+     * of [message]'s fingerprint and younger than the age limit at [now], or
+     * null if there is none.
+     */
+    @Synchronized
+    fun findNear(message: MessageContext, maxDistance: Int, now: Long): FilterResult? {
+        if (count == 0) return null
+        val fingerprint = fingerprintOf(message)
+        if (fingerprint == NO_FINGERPRINT) return null
+
+        val oldest = now - maxAgeMillis
+        var best = -1
+        var bestDistance = maxDistance + 1
+        for (slot in 0 until count) {
+            if (verdicts[slot] == null || addedAt[slot] < oldest) continue
+            val distance = java.lang.Long.bitCount(fingerprints[slot] xor fingerprint)
+            if (distance < bestDistance) {
+                best = slot
+                bestDistance = distance
+            }
+        }
+        return if (best >= 0) verdicts[best] else null
+    }
+
+    /** Forgets a message, e.g. after the user marked it as not junk. */
+    @Synchronized
+    fun remove(messageId: Long) {
+        for (slot in 0 until count) {
+            if (messageIds[slot] == messageId) {
+                verdicts[slot] = null
+            }
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        verdicts.fill(null)
+        next = 0
+        count = 0
+    }
+
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 2000
+        const val DEFAULT_MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000
+
+        // One changed name or link in a typical campaign SMS moves 5-7 bits,
+        // unrelated messages are 25+ bits apart
+        const val DEFAULT_MAX_DISTANCE = 8
+        const val MAX_DISTANCE_LIMIT = 16
+
+        /** Fewer tokens than this leave too few features for a meaningful fingerprint. */
+        const val MIN_TOKENS = 6
+
+        const val NO_FINGERPRINT = 0L
+
+        private const val SHINGLE_LENGTH = 4
+
+        private const val FNV_OFFSET = -0x340d631b7bdddcdbL
+        private const val FNV_PRIME = 0x100000001b3L
+
+        /**
+         * 64-bit SimHash of [message], or [NO_FINGERPRINT] if it has fewer
+         * than [MIN_TOKENS] tokens. The features are overlapping character
+         * [SHINGLE_LENGTH]-grams of the folded tokens joined by single
+         * spaces; each votes on every bit with its own hash, so changing one
+         * short token of a long message only flips a few bits.
+         */
+        fun fingerprintOf(message: MessageContext): Long {
+            if (message.tokenCount < MIN_TOKENS) return NO_FINGERPRINT
+            val text = message.folded
+            val votes = IntArray(64)
+            // Rolling window of the last SHINGLE_LENGTH characters
+            val window = CharArray(SHINGLE_LENGTH)
+            var filled = 0
+
+            for (token in 0 until message.tokenCount) {
+                val start = message.tokenStart(token)
+                // Tokens are joined by one space, so word boundaries are part of the shingles
+                for (i in (if (token == 0) start else start - 1) until message.tokenEnd(token)) {
+                    window[filled % SHINGLE_LENGTH] = if (i < start) ' ' else text[i]
+                    filled++
+                    if (filled >= SHINGLE_LENGTH) {
+                        vote(window, filled, votes)
+                    }
+                }
+            }
+
+            var fingerprint = 0L
+            for (bit in 0 until 64) {
+                if (votes[bit] > 0) fingerprint = fingerprint or (1L shl bit)
+            }
+            return if (fingerprint == NO_FINGERPRINT) 1L else fingerprint
+        }
+
+        /** Adds the votes of the shingle ending at character [filled] of the window. */
+        private fun vote(window: CharArray, filled: Int, votes: IntArray) {
+            var hash = FNV_OFFSET
+            for (k in filled - SHINGLE_LENGTH until filled) {
+                hash = (hash xor window[k % SHINGLE_LENGTH].code.toLong()) * FNV_PRIME
+            }
+            val shingleHash = VerdictCache.mix(hash)
+            for (bit in 0 until 64) {
+                if ((shingleHash ushr bit) and 1L != 0L) votes[bit]++ else votes[bit]--
+            }
+        }
+    }
+}
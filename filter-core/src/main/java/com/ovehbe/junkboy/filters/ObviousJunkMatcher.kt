@@ -0,0 +1,72 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.classifier.Deobfuscator
+
+/**
+ * Allocation-free check for unmistakable junk, cheap enough to run inside
+ * the SMS broadcast before deciding whether to abort it.
+ *
+ * A message is obvious junk if it contains [minIndicators] different
+ * [indicators], or any one of the [definite] phrases. Characters go through
+ * [Deobfuscator.plainChar] on the fly, so look-alikes and invisible
+ * characters are handled without building a folded copy of the text; the
+ * context-dependent rewrites are left to the full pipeline. All phrases
+ * match anywhere in the text.
+ */
+class ObviousJunkMatcher private constructor(
+    private val matcher: KeywordMatcher,
+    /** Whether each of the matcher's keywords is a definite phrase rather than an indicator. */
+    private val isDefinite: BooleanArray,
+    private val minIndicators: Int
+) {
+
+    /**
+     * True if [text] is obvious junk. Gives up and returns false once
+     * [budgetNanos] have passed, so the caller's worst case stays fixed
+     * however long the message is; the service still classifies it fully.
+     */
+    fun matches(text: CharSequence, budgetNanos: Long = DEFAULT_BUDGET_NANOS): Boolean {
+        val deadline = System.nanoTime() + budgetNanos
+        var state = 0
+        var indicators = 0
+        // Distinct indicators seen so far; only [minIndicators] of them are ever needed
+        var firstIndicator = -1
+        for (i in 0 until text.length) {
+            if (i and CLOCK_CHECK_MASK == CLOCK_CHECK_MASK && System.nanoTime() > deadline) return false
+            val c = Deobfuscator.plainChar(text[i])
+            if (c == Deobfuscator.DROP) continue
+            state = matcher.next(state, c)
+            for (k in matcher.outputStart(state) until matcher.outputEnd(state)) {
+                val keyword = matcher.outputAt(k)
+                if (isDefinite[keyword]) return true
+                if (keyword != firstIndicator) {
+                    if (firstIndicator == -1) firstIndicator = keyword
+                    indicators++
+                    if (indicators >= minIndicators) return true
+                }
+            }
+        }
+        return false
+    }
+
+    companion object {
+        /** Generous for a few hundred characters on a slow phone, small next to the broadcast deadline. */
+        const val DEFAULT_BUDGET_NANOS = 500_000L
+
+        // Read the clock only every 64 characters
+        private const val CLOCK_CHECK_MASK = 63
+
+        fun compile(indicators: List<String>, definite: List<String>, minIndicators: Int = 2): ObviousJunkMatcher {
+            // Counting distinct indicators with a single slot only works up to two
+            require(minIndicators in 1..2) { "minIndicators must be 1 or 2, got $minIndicators" }
+            // Empty phrases are dropped here rather than by the matcher, so keyword indices stay in step
+            val indicatorPhrases = indicators.filter { it.isNotEmpty() }
+            val definitePhrases = definite.filter { it.isNotEmpty() }
+            return ObviousJunkMatcher(
+                matcher = KeywordMatcher.compile((indicatorPhrases + definitePhrases).map { Keyword(it, KeywordList.JUNK) }),
+                isDefinite = BooleanArray(indicatorPhrases.size + definitePhrases.size) { it >= indicatorPhrases.size },
+                minIndicators = minIndicators
+            )
+        }
+    }
+}
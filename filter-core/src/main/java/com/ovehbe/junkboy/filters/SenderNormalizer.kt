@@ -0,0 +1,77 @@
+package com.ovehbe.junkboy.filters
+
+/**
+ * Brings sender addresses into one form so the same sender always compares
+ * equal: phone numbers to E.164 ("+905551234567" whether it arrived as
+ * "0555 123 45 67", "5551234567", "905551234567" or "0090 555 123 4567"),
+ * alphanumeric ids such as "AKBANK" to lower case. Short codes are left as
+ * they are.
+ *
+ * Numbers without a country code are taken to be from [countryCode], whose
+ * national numbers are [nationalNumberLength] digits after the trunk prefix 0.
+ */
+class SenderNormalizer(
+    private val countryCode: String = "90",
+    private val nationalNumberLength: Int = 10
+) {
+
+    fun normalize(sender: String): String {
+        val stripped = strip(sender)
+        if (!isNumber(stripped)) return stripped.lowercase()
+
+        return when {
+            stripped.startsWith("+") -> stripped
+            stripped.startsWith(INTERNATIONAL_PREFIX) -> "+" + stripped.substring(INTERNATIONAL_PREFIX.length)
+            stripped.length == nationalNumberLength + 1 && stripped.startsWith(TRUNK_PREFIX) ->
+                "+" + countryCode + stripped.substring(1)
+            stripped.length == nationalNumberLength && !stripped.startsWith(TRUNK_PREFIX) -> "+$countryCode$stripped"
+            // The full number with the "+" left off
+            stripped.length == countryCode.length + nationalNumberLength && stripped.startsWith(countryCode) -> "+$stripped"
+            // Short codes and anything of an unexpected length
+            else -> stripped
+        }
+    }
+
+    /**
+     * Normalizes the start of a number, e.g. "0850" to "+90850", for rules
+     * that cover every number beginning with it. Unlike [normalize] it
+     * cannot tell a national number from a short code by its length, so
+     * only prefixes starting with "+", "00" or the trunk 0 are expanded.
+     */
+    fun normalizePrefix(prefix: String): String {
+        val stripped = strip(prefix)
+        if (!isNumber(stripped)) return stripped.lowercase()
+
+        return when {
+            stripped.startsWith("+") -> stripped
+            stripped.startsWith(INTERNATIONAL_PREFIX) -> "+" + stripped.substring(INTERNATIONAL_PREFIX.length)
+            stripped.startsWith(TRUNK_PREFIX) -> "+" + countryCode + stripped.substring(1)
+            else -> stripped
+        }
+    }
+
+    // Drops what people type to make numbers readable
+    private fun strip(sender: String): String {
+        val stripped = StringBuilder(sender.length)
+        for (c in sender.trim()) {
+            when (c) {
+                ' ', '-', '.', '(', ')' -> continue
+                else -> stripped.append(c)
+            }
+        }
+        return stripped.toString()
+    }
+
+    private fun isNumber(text: String): Boolean {
+        if (text.isEmpty() || text == "+") return false
+        val digits = if (text[0] == '+') text.substring(1) else text
+        return digits.all { it in '0'..'9' }
+    }
+
+    companion object {
+        private const val INTERNATIONAL_PREFIX = "00"
+        private const val TRUNK_PREFIX = "0"
+
+        val DEFAULT = SenderNormalizer()
+    }
+}
@@ -0,0 +1,163 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.database.FilterType
+import com.ovehbe.junkboy.database.MessageCategory
+
+/**
+ * Recent verdicts for one sender, in [SenderNormalizer] form: how many fell
+ * into each category, indexed by [MessageCategory.ordinal], and how many
+ * were blocked.
+ */
+class SenderHistory(
+    val sender: String,
+    val categoryCounts: IntArray,
+    val blockedCount: Int,
+    val updatedAt: Long
+) {
+
+    init {
+        require(categoryCounts.size == MessageCategory.values().size) { "One count per category expected" }
+    }
+
+    val total: Int
+        get() = categoryCounts.sum()
+
+    fun countOf(category: MessageCategory): Int = categoryCounts[category.ordinal]
+}
+
+/**
+ * Remembers what each sender's messages were classified as, so senders that
+ * make up most of the traffic (bank short codes, carriers, known spammers)
+ * are settled by a map lookup once their history is consistent.
+ *
+ * Counts are rolling: once a sender has [window] verdicts, every count is
+ * halved before the next one is added, so recent verdicts outweigh old ones
+ * and a sender that changes its ways loses its reputation. A sender is only
+ * trusted after [minMessages] verdicts of which at least [threshold] agree
+ * on both the category and whether to block. Every [sampleEvery]th message
+ * a history vouches for is still left to the content stages, so trusted
+ * histories keep taking in fresh verdicts. At most [maxSenders] are kept,
+ * least recently seen evicted first.
+ *
+ * Senders are kept in [SenderNormalizer] form, so a number builds one
+ * history whether it arrives with or without its country code. Histories
+ * belong to the [generation] of the rules and model that judged them;
+ * moving to another one drops them all.
+ */
+class SenderReputation(
+    private val minMessages: Int = DEFAULT_MIN_MESSAGES,
+    private val threshold: Float = DEFAULT_THRESHOLD,
+    private val window: Int = DEFAULT_WINDOW,
+    private val maxSenders: Int = DEFAULT_MAX_SENDERS,
+    private val sampleEvery: Int = DEFAULT_SAMPLE_EVERY,
+    private val normalizer: SenderNormalizer = SenderNormalizer.DEFAULT
+) {
+
+    private val histories = object : LinkedHashMap<String, SenderHistory>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, SenderHistory>): Boolean {
+            return size > maxSenders
+        }
+    }
+
+    private var vouched = 0L
+
+    @get:Synchronized
+    val size: Int
+        get() = histories.size
+
+    /** See [generationOf]; set when restoring saved histories. */
+    @get:Synchronized
+    @set:Synchronized
+    var generation = 0L
+
+    /** The verdict [sender]'s history vouches for, or null if it is too short or mixed. */
+    @Synchronized
+    fun verdictFor(sender: String): FilterResult? {
+        val history = histories[normalizer.normalize(sender)] ?: return null
+        val total = history.total
+        if (total < minMessages) return null
+
+        var dominant = 0
+        for (i in history.categoryCounts.indices) {
+            if (history.categoryCounts[i] > history.categoryCounts[dominant]) dominant = i
+        }
+        val categoryShare = history.categoryCounts[dominant].toFloat() / total
+        val blockedShare = history.blockedCount.toFloat() / total
+        val isBlocked = blockedShare >= 0.5f
+        val blockAgreement = if (isBlocked) blockedShare else 1f - blockedShare
+        val confidence = minOf(categoryShare, blockAgreement)
+        if (confidence < threshold) return null
+        if (++vouched % sampleEvery == 0L) return null
+
+        return FilterResult(
+            isBlocked = isBlocked,
+            category = MessageCategory.values()[dominant],
+            filterType = FilterType.SENDER_REPUTATION,
+            confidence = confidence,
+            matchedRule = "sender_reputation"
+        )
+    }
+
+    /** Adds [verdict] to [sender]'s history and returns the new history so it can be saved. */
+    @Synchronized
+    fun record(sender: String, verdict: FilterResult, now: Long): SenderHistory {
+        val key = normalizer.normalize(sender)
+        val previous = histories[key]
+        val counts = previous?.categoryCounts?.copyOf() ?: IntArray(MessageCategory.values().size)
+        var blocked = previous?.blockedCount ?: 0
+        if (previous != null && previous.total >= window) {
+            for (i in counts.indices) counts[i] /= 2
+            blocked /= 2
+        }
+        counts[verdict.category.ordinal]++
+        if (verdict.isBlocked) blocked++
+
+        val history = SenderHistory(key, counts, blocked, now)
+        histories[key] = history
+        return history
+    }
+
+    /** Restores a saved history, e.g. from the database when the process starts. */
+    @Synchronized
+    fun load(history: SenderHistory) {
+        histories[history.sender] = history
+    }
+
+    /** Drops [sender]'s history, e.g. after the user corrected one of its verdicts. */
+    @Synchronized
+    fun forget(sender: String) {
+        histories.remove(normalizer.normalize(sender))
+    }
+
+    /**
+     * Moves to [generation], dropping every history if it is another one.
+     * Returns true if they were dropped, so the saved ones can be too.
+     */
+    @Synchronized
+    fun ensureGeneration(generation: Long): Boolean {
+        if (generation == this.generation) return false
+        this.generation = generation
+        histories.clear()
+        return true
+    }
+
+    companion object {
+        const val DEFAULT_MIN_MESSAGES = 5
+        const val DEFAULT_THRESHOLD = 0.9f
+        const val DEFAULT_WINDOW = 20
+        const val DEFAULT_MAX_SENDERS = 2_000
+        const val DEFAULT_SAMPLE_EVERY = 10
+
+        // Bumped when the way senders are keyed changes, so histories saved under the old keys are dropped
+        private const val KEY_REVISION = 2L
+
+        /**
+         * Identifies what judged the verdicts in the histories: the rule
+         * snapshot and the model, whose [modelVersion] is null when it is off.
+         */
+        fun generationOf(rules: CompiledRuleSet, modelVersion: String?): Long {
+            val hash = VerdictCache.mix(rules.fingerprint xor KEY_REVISION)
+            return VerdictCache.mix(hash xor (modelVersion ?: "none").hashCode().toLong())
+        }
+    }
+}
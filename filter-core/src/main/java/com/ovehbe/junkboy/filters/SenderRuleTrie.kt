@@ -0,0 +1,236 @@
+package com.ovehbe.junkboy.filters
+
+enum class SenderAction {
+    ALLOW,
+    BLOCK
+}
+
+/** A user rule that allows or blocks every sender matching [pattern]. */
+data class SenderRule(val pattern: String, val action: SenderAction)
+
+/**
+ * Prefix trie of [SenderRule]s, so a sender is checked against all of them
+ * in one walk over its [SenderNormalizer]-normalized address.
+ *
+ * Patterns, normalized the same way as senders:
+ * - an exact sender: `+905551234567`, `05551234567`, `AKBANK`
+ * - a prefix ending in `*`: `+90850*` or `0850*` for every 0850 number
+ * - a prefix followed by `?`s, one per remaining character: `0555123????`
+ * - a range of numbers of the same length: `0850 100 00 00..0850 199 99 99`
+ *
+ * A range is stored as the few prefixes that cover it exactly, so matching
+ * never branches. When several rules match, the one with the longest
+ * literal prefix wins, then a fixed length over `*`, then allow over block.
+ *
+ * Nodes and edges are flattened into arrays once the trie is built; edges
+ * of a node are sorted and found by binary search.
+ */
+class SenderRuleTrie private constructor(
+    private val rules: List<SenderRule>,
+    private val normalizer: SenderNormalizer,
+    private val edgeStart: IntArray,
+    private val edgeChars: CharArray,
+    private val edgeTargets: IntArray,
+    private val actionStart: IntArray,
+    /** Characters that must follow the node for the rule to match, or [ANY_LENGTH]. */
+    private val actionRemaining: IntArray,
+    private val actionRules: IntArray
+) {
+
+    val size: Int
+        get() = rules.size
+
+    /** The rule deciding [sender], or null if none matches. */
+    fun match(sender: String): SenderRule? {
+        if (rules.isEmpty()) return null
+        val key = normalizer.normalize(sender)
+
+        var best = -1
+        var bestDepth = -1
+        var bestRemaining = ANY_LENGTH
+        var node = 0
+        var depth = 0
+        while (true) {
+            for (a in actionStart[node] until actionStart[node + 1]) {
+                val remaining = actionRemaining[a]
+                if (remaining != ANY_LENGTH && remaining != key.length - depth) continue
+                val rule = actionRules[a]
+                // Deeper nodes come later in the walk, so only ties at this node need breaking
+                val wins = best == -1 || depth > bestDepth ||
+                    (remaining != ANY_LENGTH && bestRemaining == ANY_LENGTH) ||
+                    ((remaining == ANY_LENGTH) == (bestRemaining == ANY_LENGTH) &&
+                        rules[rule].action == SenderAction.ALLOW)
+                if (wins) {
+                    best = rule
+                    bestDepth = depth
+                    bestRemaining = remaining
+                }
+            }
+            if (depth == key.length) break
+            node = child(node, key[depth])
+            if (node == -1) break
+            depth++
+        }
+        return if (best >= 0) rules[best] else null
+    }
+
+    private fun child(node: Int, c: Char): Int {
+        var low = edgeStart[node]
+        var high = edgeStart[node + 1] - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val edge = edgeChars[mid]
+            when {
+                edge < c -> low = mid + 1
+                edge > c -> high = mid - 1
+                else -> return edgeTargets[mid]
+            }
+        }
+        return -1
+    }
+
+    private class Builder {
+        val children = mutableListOf(HashMap<Char, Int>())
+        val actions = mutableListOf(mutableListOf<Pair<Int, Int>>())
+
+        fun add(prefix: String, remaining: Int, rule: Int) {
+            var node = 0
+            for (c in prefix) {
+                node = children[node].getOrPut(c) {
+                    children.add(HashMap())
+                    actions.add(mutableListOf())
+                    children.size - 1
+                }
+            }
+            actions[node].add(remaining to rule)
+        }
+    }
+
+    companion object {
+        private const val ANY_LENGTH = -1
+        private const val RANGE_SEPARATOR = ".."
+
+        val EMPTY: SenderRuleTrie = compile(emptyList())
+
+        /** Builds the trie; invalid patterns (see [validatePattern]) are dropped. */
+        fun compile(rules: List<SenderRule>, normalizer: SenderNormalizer = SenderNormalizer.DEFAULT): SenderRuleTrie {
+            val validRules = rules.filter { validatePattern(it.pattern, normalizer) == null }
+            val builder = Builder()
+            validRules.forEachIndexed { index, rule ->
+                for ((prefix, remaining) in expand(rule.pattern, normalizer)) {
+                    builder.add(prefix, remaining, index)
+                }
+            }
+
+            val nodeCount = builder.children.size
+            val edgeStart = IntArray(nodeCount + 1)
+            val actionStart = IntArray(nodeCount + 1)
+            for (node in 0 until nodeCount) {
+                edgeStart[node + 1] = edgeStart[node] + builder.children[node].size
+                actionStart[node + 1] = actionStart[node] + builder.actions[node].size
+            }
+            val edgeChars = CharArray(edgeStart[nodeCount])
+            val edgeTargets = IntArray(edgeStart[nodeCount])
+            val actionRemaining = IntArray(actionStart[nodeCount])
+            val actionRules = IntArray(actionStart[nodeCount])
+            for (node in 0 until nodeCount) {
+                var edge = edgeStart[node]
+                for ((c, target) in builder.children[node].entries.sortedBy { it.key }) {
+                    edgeChars[edge] = c
+                    edgeTargets[edge] = target
+                    edge++
+                }
+                var action = actionStart[node]
+                for ((remaining, rule) in builder.actions[node]) {
+                    actionRemaining[action] = remaining
+                    actionRules[action] = rule
+                    action++
+                }
+            }
+            return SenderRuleTrie(
+                validRules, normalizer, edgeStart, edgeChars, edgeTargets, actionStart, actionRemaining, actionRules
+            )
+        }
+
+        /**
+         * Returns null if [pattern] is a valid sender pattern, otherwise the
+         * reason it is not.
+         */
+        fun validatePattern(pattern: String, normalizer: SenderNormalizer = SenderNormalizer.DEFAULT): String? {
+            val trimmed = pattern.trim()
+            if (trimmed.isEmpty()) {
+                return "Pattern is empty"
+            }
+            if (RANGE_SEPARATOR in trimmed) {
+                val bounds = trimmed.split(RANGE_SEPARATOR)
+                if (bounds.size != 2) return "A range needs exactly one \"$RANGE_SEPARATOR\""
+                val low = normalizer.normalize(bounds[0])
+                val high = normalizer.normalize(bounds[1])
+                if (!isFullNumber(low) || !isFullNumber(high)) return "Both ends of a range must be numbers"
+                if (low.length != high.length || low.startsWith("+") != high.startsWith("+")) {
+                    return "Both ends of a range must have the same length"
+                }
+                if (low > high) return "The range ends before it starts"
+                return null
+            }
+            val literal = trimmed.trimEnd('*').trimEnd('?')
+            if (literal.any { it == '*' || it == '?' }) return "Wildcards are only allowed at the end"
+            if (trimmed.endsWith("*") && trimmed.count { it == '*' } > 1) return "Only one * is allowed"
+            if (trimmed.endsWith("*") && '?' in trimmed) return "Use either * or ?, not both"
+            if (normalizer.normalizePrefix(literal).isEmpty()) return "Add at least one character before the wildcard"
+            return null
+        }
+
+        // The prefixes a valid pattern covers, each with the characters that must follow it
+        private fun expand(pattern: String, normalizer: SenderNormalizer): List<Pair<String, Int>> {
+            val trimmed = pattern.trim()
+            return when {
+                RANGE_SEPARATOR in trimmed -> {
+                    val (low, high) = trimmed.split(RANGE_SEPARATOR).map { normalizer.normalize(it) }
+                    val sign = if (low.startsWith("+")) "+" else ""
+                    mutableListOf<Pair<String, Int>>().also {
+                        cover(sign, low.removePrefix(sign), high.removePrefix(sign), it)
+                    }
+                }
+                trimmed.endsWith("*") -> listOf(normalizer.normalizePrefix(trimmed.trimEnd('*')) to ANY_LENGTH)
+                trimmed.endsWith("?") -> {
+                    val literal = trimmed.trimEnd('?')
+                    listOf(normalizer.normalizePrefix(literal) to trimmed.length - literal.length)
+                }
+                else -> listOf(normalizer.normalize(trimmed) to 0)
+            }
+        }
+
+        /**
+         * Adds the fewest prefixes that cover exactly the digit strings from
+         * [low] to [high], both of the same length, after [prefix].
+         */
+        private fun cover(prefix: String, low: String, high: String, out: MutableList<Pair<String, Int>>) {
+            val length = low.length
+            if (length == 0) {
+                out.add(prefix to 0)
+                return
+            }
+            if (low.all { it == '0' } && high.all { it == '9' }) {
+                out.add(prefix to length)
+                return
+            }
+            val first = low[0]
+            val last = high[0]
+            if (first == last) {
+                cover(prefix + first, low.substring(1), high.substring(1), out)
+                return
+            }
+            cover(prefix + first, low.substring(1), "9".repeat(length - 1), out)
+            for (digit in first + 1 until last) {
+                out.add(prefix + digit to length - 1)
+            }
+            cover(prefix + last, "0".repeat(length - 1), high.substring(1), out)
+        }
+
+        private fun isFullNumber(text: String): Boolean {
+            val digits = text.removePrefix("+")
+            return digits.isNotEmpty() && digits.all { it in '0'..'9' }
+        }
+    }
+}
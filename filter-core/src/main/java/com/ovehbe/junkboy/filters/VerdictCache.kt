@@ -0,0 +1,295 @@
+package com.ovehbe.junkboy.filters
+
+import com.ovehbe.junkboy.classifier.MessageContext
+import com.ovehbe.junkboy.database.FilterType
+import com.ovehbe.junkboy.database.MessageCategory
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * Two-tier cache of final verdicts, so repeated copies of a campaign message
+ * cost one hash lookup instead of a full classification.
+ *
+ * Entries are keyed by [keyOf] the normalized message body and belong to a
+ * generation computed by [generationOf] from everything that can change a
+ * verdict: the rule snapshot, the model and the enabled filter types. Moving
+ * to a new generation drops every entry in both tiers.
+ *
+ * The memory tier is an LRU of [memoryCapacity] entries. The disk tier keeps
+ * the [diskCapacity] most recently added entries in an append-only [file]
+ * that is compacted when it grows, so verdicts survive service restarts.
+ * New entries are appended in batches, on [flush] or once [APPEND_BATCH]
+ * are waiting. Pass a null file for a memory-only cache.
+ */
+class VerdictCache(
+    private val memoryCapacity: Int = DEFAULT_MEMORY_CAPACITY,
+    private val diskCapacity: Int = DEFAULT_DISK_CAPACITY,
+    private val file: File? = null
+) {
+
+    private val memory = object : LinkedHashMap<Long, FilterResult>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, FilterResult>): Boolean {
+            return size > memoryCapacity
+        }
+    }
+
+    private val disk = object : LinkedHashMap<Long, FilterResult>() {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, FilterResult>): Boolean {
+            return size > diskCapacity
+        }
+    }
+
+    private var generation = 0L
+    private var loaded = false
+    private var recordsInFile = 0
+    // Keys added to the disk tier but not yet to the file
+    private val unwritten = ArrayList<Long>()
+
+    private var hits = 0L
+    private var misses = 0L
+
+    /** The cached verdict for [key] in [generation], or null. */
+    @Synchronized
+    fun get(generation: Long, key: Long): FilterResult? {
+        ensureGeneration(generation)
+        val result = memory[key] ?: disk[key]?.also { memory[key] = it }
+        if (result != null) hits++ else misses++
+        return result
+    }
+
+    @Synchronized
+    fun put(generation: Long, key: Long, result: FilterResult) {
+        ensureGeneration(generation)
+        memory[key] = result
+        if (disk.put(key, result) == null) {
+            unwritten.add(key)
+            if (unwritten.size >= APPEND_BATCH) flush()
+        }
+    }
+
+    /** Drops the entry for [key] from both tiers, e.g. after the user overrode its verdict. */
+    @Synchronized
+    fun remove(key: Long) {
+        memory.remove(key)
+        val file = file ?: return
+        if (!loaded) {
+            // Not read yet, so the entry cannot be picked out of the file
+            file.delete()
+            return
+        }
+        if (disk.remove(key) == null) return
+        unwritten.remove(key)
+        try {
+            compact(file)
+            unwritten.clear()
+        } catch (e: IOException) {
+            file.delete()
+            recordsInFile = 0
+        }
+    }
+
+    /** Writes the entries added since the last flush to the file. */
+    @Synchronized
+    fun flush() {
+        if (unwritten.isEmpty()) return
+        val file = file
+        if (file == null) {
+            unwritten.clear()
+            return
+        }
+        try {
+            if (recordsInFile + unwritten.size > diskCapacity * 2) {
+                compact(file)
+            } else {
+                append(file)
+            }
+        } catch (e: IOException) {
+            // The disk tier is best effort; the memory tier still has the entries
+        }
+        unwritten.clear()
+    }
+
+    /** Drops every entry in both tiers. */
+    @Synchronized
+    fun clear() {
+        memory.clear()
+        disk.clear()
+        unwritten.clear()
+        file?.delete()
+        recordsInFile = 0
+    }
+
+    @Synchronized
+    fun hitRate(): Float {
+        val total = hits + misses
+        return if (total > 0) hits.toFloat() / total else 0f
+    }
+
+    private fun ensureGeneration(generation: Long) {
+        if (!loaded) {
+            loaded = true
+            this.generation = generation
+            load(generation)
+        } else if (generation != this.generation) {
+            this.generation = generation
+            clear()
+        }
+    }
+
+    private fun load(generation: Long) {
+        val file = file ?: return
+        if (!file.exists()) return
+        try {
+            DataInputStream(BufferedInputStream(file.inputStream())).use { input ->
+                if (input.readInt() != MAGIC || input.readLong() != generation) {
+                    // Written under other rules or another model
+                    file.delete()
+                    return
+                }
+                while (true) {
+                    val key = try {
+                        input.readLong()
+                    } catch (e: EOFException) {
+                        break
+                    }
+                    disk[key] = readResult(input)
+                    recordsInFile++
+                }
+            }
+        } catch (e: IOException) {
+            // A torn last record or an unreadable file just costs the cached verdicts
+            disk.clear()
+            file.delete()
+            recordsInFile = 0
+        }
+    }
+
+    private fun append(file: File) {
+        val isNew = !file.exists() || file.length() == 0L
+        DataOutputStream(BufferedOutputStream(FileOutputStream(file, true))).use { out ->
+            if (isNew) writeHeader(out)
+            for (key in unwritten) {
+                // Evicted from the disk tier before it was written
+                val result = disk[key] ?: continue
+                out.writeLong(key)
+                writeResult(out, result)
+                recordsInFile++
+            }
+        }
+    }
+
+    /** Rewrites the file with only the entries the disk tier still holds. */
+    private fun compact(file: File) {
+        val temp = File(file.path + ".tmp")
+        DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { out ->
+            writeHeader(out)
+            for ((key, result) in disk) {
+                out.writeLong(key)
+                writeResult(out, result)
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("Could not replace $file")
+        }
+        recordsInFile = disk.size
+    }
+
+    private fun writeHeader(out: DataOutputStream) {
+        out.writeInt(MAGIC)
+        out.writeLong(generation)
+    }
+
+    private fun writeResult(out: DataOutputStream, result: FilterResult) {
+        out.writeBoolean(result.isBlocked)
+        out.writeByte(result.category.ordinal)
+        out.writeByte(result.filterType.ordinal)
+        out.writeFloat(result.confidence)
+        out.writeUTF(result.matchedRule ?: "")
+    }
+
+    private fun readResult(input: DataInputStream): FilterResult {
+        val isBlocked = input.readBoolean()
+        val category = MessageCategory.values().getOrNull(input.readUnsignedByte())
+        val filterType = FilterType.values().getOrNull(input.readUnsignedByte())
+        val confidence = input.readFloat()
+        val matchedRule = input.readUTF()
+        if (category == null || filterType == null) throw IOException("Unknown verdict")
+        return FilterResult(isBlocked, category, filterType, confidence, matchedRule.ifEmpty { null })
+    }
+
+    companion object {
+        const val DEFAULT_MEMORY_CAPACITY = 512
+        const val DEFAULT_DISK_CAPACITY = 256
+
+        /** New entries written to the file at once. */
+        const val APPEND_BATCH = 32
+
+        private const val MAGIC = 0x4A425643 // "JBVC"
+
+        private const val FNV_OFFSET = -0x340d631b7bdddcdbL
+        private const val FNV_PRIME = 0x100000001b3L
+
+        /**
+         * Cache key for a message: a 64-bit hash of the folded body with
+         * whitespace runs collapsed, plus whether the sender looks like a
+         * plain number, which attack mode blocks on. Verdicts that depend on
+         * anything else about the sender are not cached, see
+         * [FilterState.isJudgedOnContent].
+         */
+        fun keyOf(message: MessageContext): Long {
+            val text = message.folded
+            var hash = FNV_OFFSET
+            var pendingSpace = false
+            for (i in 0 until text.length) {
+                val c = text[i]
+                if (c.isWhitespace()) {
+                    pendingSpace = true
+                    continue
+                }
+                if (pendingSpace && hash != FNV_OFFSET) {
+                    hash = (hash xor ' '.code.toLong()) * FNV_PRIME
+                }
+                pendingSpace = false
+                hash = (hash xor c.code.toLong()) * FNV_PRIME
+            }
+            return mix(hash xor if (message.isNumericSender) 1L else 0L)
+        }
+
+        /**
+         * Identifies everything a verdict depends on besides the message.
+         * [modelVersion] is null when the model is not loaded and the
+         * classifier's fallback rules are in use. [cascadeBand] is null when
+         * the cascade is off and the model runs for every message.
+         */
+        fun generationOf(
+            rules: CompiledRuleSet,
+            modelVersion: String?,
+            isMlEnabled: Boolean,
+            isRuleFilteringEnabled: Boolean,
+            cascadeBand: UncertaintyBand? = null
+        ): Long {
+            var hash = mix(rules.fingerprint)
+            hash = mix(hash xor (modelVersion ?: "fallback").hashCode().toLong())
+            hash = mix(hash xor (if (isMlEnabled) 2L else 0L) xor (if (isRuleFilteringEnabled) 4L else 0L))
+            if (cascadeBand != null) {
+                hash = mix(hash xor (cascadeBand.low.toRawBits().toLong() shl 32) xor cascadeBand.high.toRawBits().toLong())
+            }
+            return hash
+        }
+
+        /** Finalizer of SplitMix64, spreads every input bit over the result. */
+        internal fun mix(value: Long): Long {
+            var z = value
+            z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+            z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+            return z xor (z ushr 31)
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ovehbe.junkboy.filters
+
+/**
+ * Combines the ML verdict with the rule-based verdict.
+ *
+ * ML has precedence and the result always keeps the ML filter type, but a
+ * blocking decision from either side is respected and rules may supply the
+ * category when they are more confident.
+ */
+object VerdictMerger {
+
+    fun merge(mlResult: FilterResult, ruleResult: FilterResult?): FilterResult {
+        // Only ML is enabled, use ML result
+        if (ruleResult == null) {
+            return mlResult
+        }
+
+        return when {
+            // If either method wants to block, respect the blocking decision
+            mlResult.isBlocked || ruleResult.isBlocked -> {
+                if (mlResult.isBlocked && ruleResult.isBlocked) {
+                    // Both want to block - use higher confidence
+                    if (mlResult.confidence >= ruleResult.confidence) {
+                        mlResult.copy(
+                            matchedRule = "ml_primary_block:${mlResult.matchedRule ?: "ml_default"}"
+                        )
+                    } else {
+                        mlResult.copy(
+                            isBlocked = true,
+                            category = ruleResult.category,
+                            confidence = ruleResult.confidence,
+                            matchedRule = "ml_with_rule_block:${ruleResult.matchedRule}"
+                        )
+                    }
+                } else if (mlResult.isBlocked) {
+                    // Only ML wants to block
+                    mlResult.copy(
+                        matchedRule = "ml_block:${mlResult.matchedRule ?: "ml_default"}"
+                    )
+                } else {
+                    // Only rule wants to block - use rule decision but mark as ML classification
+                    mlResult.copy(
+                        isBlocked = true,
+                        category = ruleResult.category,
+                        confidence = ruleResult.confidence,
+                        matchedRule = "ml_enhanced_by_rule_block:${ruleResult.matchedRule}"
+                    )
+                }
+            }
+
+            // Neither wants to block - use the result with higher confidence for categorization
+            else -> {
+                if (mlResult.confidence >= ruleResult.confidence) {
+                    mlResult.copy(
+                        matchedRule = "ml_primary:${mlResult.matchedRule ?: "ml_default"}"
+                    )
+                } else {
+                    // Rule has better categorization confidence - use it but mark as ML
+                    mlResult.copy(
+                        category = ruleResult.category,
+                        confidence = ruleResult.confidence,
+                        matchedRule = "ml_with_rule_category:${ruleResult.matchedRule}"
+                    )
+                }
+            }
+        }
+    }
+}
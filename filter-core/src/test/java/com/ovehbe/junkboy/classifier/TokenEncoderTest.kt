@@ -0,0 +1,54 @@
+package com.ovehbe.junkboy.classifier
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class TokenEncoderTest {
+
+    private val vocabulary = InMemoryVocabulary.fromMap(
+        mapOf("<PAD>" to 0, TextTokenizer.UNKNOWN_TOKEN to 1, "hesabınıza" to 2, "tl" to 3, "yatırıldı" to 4)
+    )
+    private val message = MessageContext.of("Hesabınıza 500 TL yatırıldı, detaylar için tıklayın")
+    private val tokenIds = IntArray(MAX_SEQUENCE_LENGTH)
+    private val sink = TokenSink { position, tokenId -> tokenIds[position] = tokenId }
+
+    @Test
+    fun encodesTokensAndPadsTheRow() {
+        val count = TokenEncoder(vocabulary).encode(message, sink, MAX_SEQUENCE_LENGTH)
+
+        assertEquals(7, count)
+        val expected = IntArray(MAX_SEQUENCE_LENGTH)
+        intArrayOf(2, 1, 3, 4, 1, 1, 1).copyInto(expected)
+        assertArrayEquals(expected, tokenIds)
+    }
+
+    @Test
+    fun encodeAllocatesNothing() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+        val thread = Thread.currentThread().id
+        val encoder = TokenEncoder(vocabulary)
+
+        // Let the JIT compile encode before measuring
+        repeat(WARMUP_CALLS) { encoder.encode(message, sink, MAX_SEQUENCE_LENGTH) }
+
+        // Whatever reading the counter itself allocates is not charged to encode
+        val overhead = threads.getThreadAllocatedBytes(thread).let { threads.getThreadAllocatedBytes(thread) - it }
+        val before = threads.getThreadAllocatedBytes(thread)
+        repeat(MEASURED_CALLS) { encoder.encode(message, sink, MAX_SEQUENCE_LENGTH) }
+        val allocated = threads.getThreadAllocatedBytes(thread) - before - overhead
+
+        // Any object is at least 16 bytes, so one per call cannot vanish in the rounding
+        assertEquals("Bytes allocated per encode", 0L, allocated / MEASURED_CALLS)
+    }
+
+    private companion object {
+        const val MAX_SEQUENCE_LENGTH = 16
+        const val WARMUP_CALLS = 20_000
+        const val MEASURED_CALLS = 10_000
+    }
+}